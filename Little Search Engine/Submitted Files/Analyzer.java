@@ -0,0 +1,138 @@
+package lse;
+
+/**
+ * This class turns a word into the keyword it is indexed and searched under, by passing it
+ * through a chain of filters. Each filter changes the characters of the word in place in a
+ * character array and returns the new length, or drops the word; nothing is allocated, so
+ * documents are analyzed on the tokenizer's buffer as they are read. A LittleSearchEngine applies
+ * the same analyzer to the words of documents and to the words of queries (getKeyword), so both
+ * always agree on keywords.
+ * <p>
+ * The standard analyzer applies the keyword test of LittleSearchEngine.getKeyword: lower case,
+ * strip trailing punctuation, drop words that are not all letters, drop noise words. The stemming
+ * analyzer then reduces keywords to their stems with the Porter stemmer, so "run", "runs" and
+ * "running" share one postings list, which also makes the index smaller.
+ * <p>
+ * Filters must not keep state between calls, since documents may be analyzed by several threads
+ * at once. What a filter needs of the engine, such as its noise words, it gets from the context
+ * passed to every call, so one analyzer can be used by engines with different noise words.
+ */
+public class Analyzer {
+
+    /**
+     * What filters are given of the engine that a word is analyzed for.
+     */
+    public interface Context {
+        /**
+         * Tells whether a word is one of the engine's noise words.
+         *
+         * @param chars  Characters of the word, at the start of the array
+         * @param length Length of the word
+         * @return True if the word is a noise word
+         */
+        boolean isNoiseWord(char[] chars, int length);
+    }
+
+    /**
+     * One step of an analyzer.
+     */
+    public interface Filter {
+        /**
+         * Filters a word in place.
+         *
+         * @param chars   Characters of the word, at the start of the array
+         * @param length  Length of the word
+         * @param context Engine the word is analyzed for
+         * @return New length of the word, which must not be larger than length; 0 or less to
+         * drop the word
+         */
+        int filter(char[] chars, int length, Context context);
+    }
+
+    /**
+     * Lower cases all characters.
+     */
+    public static final Filter LOWER_CASE = (chars, length, context) -> {
+        for (int i = 0; i < length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return length;
+    };
+
+    /**
+     * Strips trailing non-letters (punctuation), and drops the word unless all that is left is
+     * letters.
+     */
+    public static final Filter STRIP_PUNCTUATION = (chars, length, context) -> {
+        int lastLetter = -1;
+        int firstNonLetter = length;
+        for (int i = 0; i < length; i++) {
+            if (Character.isAlphabetic(chars[i])) {
+                if (firstNonLetter < i) return -1;
+                lastLetter = i;
+            } else if (firstNonLetter == length) {
+                firstNonLetter = i;
+            }
+        }
+        return lastLetter + 1;
+    };
+
+    /**
+     * Drops the noise words of the context.
+     */
+    public static final Filter NOISE_WORDS =
+            (chars, length, context) -> context.isNoiseWord(chars, length) ? -1 : length;
+
+    /**
+     * Reduces words to their stems with the Porter stemming algorithm.
+     */
+    public static final Filter PORTER_STEMMER = new PorterStemmer();
+
+    private final Filter[] filters;
+
+    /**
+     * Initializes an analyzer.
+     *
+     * @param filters Filters, applied in the order given
+     */
+    public Analyzer(Filter... filters) {
+        this.filters = filters.clone();
+    }
+
+    /**
+     * Returns the analyzer that applies the keyword test of LittleSearchEngine.getKeyword, used
+     * by default.
+     *
+     * @return Lower case, strip punctuation, drop noise words
+     */
+    public static Analyzer standard() {
+        return new Analyzer(LOWER_CASE, STRIP_PUNCTUATION, NOISE_WORDS);
+    }
+
+    /**
+     * Returns the standard analyzer followed by the Porter stemmer. Noise words are dropped
+     * before stemming, so they are given as words, not stems.
+     *
+     * @return Lower case, strip punctuation, drop noise words, stem
+     */
+    public static Analyzer stemming() {
+        return new Analyzer(LOWER_CASE, STRIP_PUNCTUATION, NOISE_WORDS, PORTER_STEMMER);
+    }
+
+    /**
+     * Analyzes a word in place.
+     *
+     * @param chars   Characters of the word, at the start of the array
+     * @param length  Length of the word
+     * @param context Engine the word is analyzed for
+     * @return Length of the keyword, which takes the place of the word at the start of chars;
+     * -1 if the word is dropped
+     */
+    int analyze(char[] chars, int length, Context context) {
+        for (Filter filter : filters) {
+            length = filter.filter(chars, length, context);
+            if (length <= 0) return -1;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,286 @@
+package lse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class measures the main operations of LittleSearchEngine on synthetic corpora from
+ * CorpusGenerator, at several numbers of documents. Each benchmark is run for a few warmup
+ * iterations, whose results are dropped so that the JIT compiler has settled, then for measured
+ * iterations; the result is the mean time per operation with its standard deviation over the
+ * measured iterations, and the mean number of bytes allocated per operation, read from the
+ * allocation counter of the benchmark thread.
+ * <p>
+ * Benchmarks, for each number of documents N:
+ * <pre>
+ * loadKeywordsFromDocument  scanning one document file (a sample of up to 1000 files is written)
+ * mergeKeywords             merging one document into an index of N documents
+ * insertLastOccurrence      inserting into an occurrence list of N occurrences
+ * top5search                searching an index of N documents for two keywords
+ * </pre>
+ * Usage: java lse.Benchmarks [documentCounts [wordsPerDocument]], for instance
+ * java -Xmx8g lse.Benchmarks 1000,100000,1000000 200. An index of a million documents of 200
+ * words takes a few gigabytes.
+ */
+public class Benchmarks {
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 10;
+
+    /**
+     * Number of times each benchmark operation is done per iteration.
+     */
+    private static final int OPERATIONS = 1000;
+
+    private static final int VOCABULARY_SIZE = 50000;
+    private static final int NOISE_WORDS = 100;
+
+    /**
+     * One iteration of a benchmark: does its operations and returns how many it did. Work that
+     * should not be measured is done in setUp.
+     */
+    private interface Iteration {
+        default void setUp() throws Exception {
+        }
+
+        int run() throws Exception;
+
+        default void tearDown() throws Exception {
+        }
+    }
+
+    private final CorpusGenerator generator = new CorpusGenerator(VOCABULARY_SIZE, 1.0, 112);
+    private final int words;
+    private final File directory;
+    private final File noiseWordsFile;
+    private final com.sun.management.ThreadMXBean threads;
+
+    private Benchmarks(int words, File directory) throws IOException {
+        this.words = words;
+        this.directory = directory;
+        this.noiseWordsFile = new File(directory, "noisewords.txt");
+        try (PrintWriter out = new PrintWriter(noiseWordsFile)) {
+            for (String word : generator.noiseWords(NOISE_WORDS)) {
+                out.println(word);
+            }
+        }
+
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        threads = bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+                ? (com.sun.management.ThreadMXBean) bean : null;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String counts = args.length > 0 ? args[0] : "1000,100000,1000000";
+        int words = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        File directory = Files.createTempDirectory("lse-bench").toFile();
+        Benchmarks benchmarks = new Benchmarks(words, directory);
+        System.out.printf("%-26s %10s %8s %14s %12s %14s%n",
+                "Benchmark", "documents", "ops", "ns/op", "stddev", "bytes/op");
+        for (String count : counts.split(",")) {
+            benchmarks.runAll(Integer.parseInt(count.trim()));
+        }
+        benchmarks.deleteFiles();
+    }
+
+    private void runAll(int documentCount) throws Exception {
+        loadKeywordsFromDocument(documentCount);
+        insertLastOccurrence(documentCount);
+
+        LittleSearchEngine engine = new LittleSearchEngine();
+        engine.loadNoiseWords(noiseWordsFile.getPath());
+        for (int d = 0; d < documentCount; d++) {
+            engine.mergeKeywords(scan(engine, d));
+        }
+        mergeKeywords(engine, documentCount);
+        top5search(engine, documentCount);
+    }
+
+    private void loadKeywordsFromDocument(int documentCount) throws Exception {
+        int sample = Math.min(documentCount, OPERATIONS);
+        String[] docFiles = new String[sample];
+        for (int d = 0; d < sample; d++) {
+            File docFile = new File(directory, CorpusGenerator.fileName(d));
+            if (!docFile.exists()) {
+                Files.write(docFile.toPath(), generator.document(d, words).getBytes());
+            }
+            docFiles[d] = docFile.getPath();
+        }
+
+        LittleSearchEngine engine = new LittleSearchEngine();
+        engine.loadNoiseWords(noiseWordsFile.getPath());
+        measure("loadKeywordsFromDocument", documentCount, () -> {
+            for (int i = 0; i < OPERATIONS; i++) {
+                engine.loadKeywordsFromDocument(docFiles[i % sample]);
+            }
+            return OPERATIONS;
+        });
+    }
+
+    /**
+     * Merges documents that are not in the index yet, and removes them again after each
+     * iteration, so that every iteration merges into N documents.
+     */
+    private void mergeKeywords(LittleSearchEngine engine, int documentCount) throws Exception {
+        ArrayList<HashMap<String, Occurrence>> batch = new ArrayList<>();
+        measure("mergeKeywords", documentCount, new Iteration() {
+            int next = documentCount;
+
+            public void setUp() {
+                batch.clear();
+                for (int i = 0; i < OPERATIONS; i++) {
+                    batch.add(scan(engine, next + i));
+                }
+            }
+
+            public int run() {
+                for (HashMap<String, Occurrence> keywords : batch) {
+                    engine.mergeKeywords(keywords);
+                }
+                return batch.size();
+            }
+
+            public void tearDown() {
+                for (int i = 0; i < OPERATIONS; i++) {
+                    engine.removeDocument(CorpusGenerator.fileName(next + i));
+                }
+                next += OPERATIONS;
+            }
+        });
+    }
+
+    /**
+     * Inserts occurrences with long-tailed frequencies into a list of N occurrences, which
+     * is rebuilt before every iteration.
+     */
+    private void insertLastOccurrence(int documentCount) throws Exception {
+        Random random = new Random(1);
+        ArrayList<Occurrence> sorted = new ArrayList<>();
+        for (int d = 0; d < documentCount; d++) {
+            sorted.add(new Occurrence(CorpusGenerator.fileName(d), frequency(random)));
+        }
+        sorted.sort((o1, o2) -> Integer.compare(o2.frequency, o1.frequency));
+        Occurrence[] inserted = new Occurrence[OPERATIONS];
+        for (int i = 0; i < OPERATIONS; i++) {
+            inserted[i] = new Occurrence(CorpusGenerator.fileName(documentCount + i), frequency(random));
+        }
+
+        LittleSearchEngine engine = new LittleSearchEngine();
+        ArrayList<Occurrence> occs = new ArrayList<>(documentCount + OPERATIONS);
+        measure("insertLastOccurrence", documentCount, new Iteration() {
+            public void setUp() {
+                occs.clear();
+                occs.addAll(sorted);
+            }
+
+            public int run() {
+                for (Occurrence occurrence : inserted) {
+                    occs.add(occurrence);
+                    engine.insertLastOccurrence(occs);
+                }
+                return OPERATIONS;
+            }
+        });
+    }
+
+    /**
+     * Searches for pairs of keywords drawn from the same distribution as the words of the
+     * documents, so common keywords, with long postings, are searched for most often.
+     */
+    private void top5search(LittleSearchEngine engine, int documentCount) throws Exception {
+        Random random = new Random(2);
+        String[][] queries = new String[OPERATIONS][];
+        for (int i = 0; i < OPERATIONS; i++) {
+            queries[i] = new String[]{keyword(random), keyword(random)};
+        }
+        measure("top5search", documentCount, () -> {
+            for (String[] query : queries) {
+                engine.top5search(query[0], query[1]);
+            }
+            return OPERATIONS;
+        });
+    }
+
+    /**
+     * Scans document d of the corpus from memory, under its file name.
+     */
+    private HashMap<String, Occurrence> scan(LittleSearchEngine engine, int d) {
+        return engine.scanDocument(CorpusGenerator.fileName(d),
+                new StringReader(generator.document(d, words)), false).keywords;
+    }
+
+    /**
+     * Frequency of a keyword in a document: mostly 1, with a long tail of larger frequencies,
+     * as in the postings of a common keyword.
+     */
+    private static int frequency(Random random) {
+        double u = random.nextDouble();
+        return 1 + (int) (1 / (u * u + 0.0001) / 100);
+    }
+
+    /**
+     * Draws a word that is not a noise word, from the distribution of the words of documents.
+     */
+    private String keyword(Random random) {
+        int rank;
+        do {
+            rank = generator.sampleRank(random);
+        } while (rank < NOISE_WORDS);
+        return generator.word(rank);
+    }
+
+    private void measure(String name, int documentCount, Iteration iteration) throws Exception {
+        List<Double> nanosPerOp = new ArrayList<>();
+        long bytes = 0;
+        long operations = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS + MEASURED_ITERATIONS; i++) {
+            iteration.setUp();
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            int done = iteration.run();
+            long elapsed = System.nanoTime() - start;
+            long allocated = allocatedBytes() - allocatedBefore;
+            iteration.tearDown();
+
+            if (i < WARMUP_ITERATIONS) continue;
+            nanosPerOp.add((double) elapsed / done);
+            bytes += allocated;
+            operations += done;
+        }
+
+        double mean = 0;
+        for (double value : nanosPerOp) {
+            mean += value / nanosPerOp.size();
+        }
+        double variance = 0;
+        for (double value : nanosPerOp) {
+            variance += (value - mean) * (value - mean) / Math.max(1, nanosPerOp.size() - 1);
+        }
+        System.out.printf("%-26s %10d %8d %14.1f %12.1f %14s%n", name, documentCount, operations,
+                mean, Math.sqrt(variance), threads == null ? "n/a" : String.valueOf(bytes / operations));
+    }
+
+    private long allocatedBytes() {
+        return threads == null ? 0 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private void deleteFiles() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,444 @@
+package lse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * This class parses and evaluates boolean queries over keywords, such as
+ * <pre>
+ *     (alice OR rabbit) AND NOT queen
+ * </pre>
+ * Operators are AND, OR and NOT, in upper case, with NOT binding tightest and OR loosest;
+ * parentheses group. Two terms with no operator between them are ANDed. Terms go through
+ * LittleSearchEngine.getKeyword, and terms that are not keywords (noise words, numbers, ...)
+ * are dropped from the query, as they would never be found in the index.
+ * <p>
+ * A query is evaluated into the ascending list of ids of matching documents. AND starts from its
+ * shortest operand, and keeps the ids that are in the others: a keyword's postings are searched
+ * for each id with their document id skip data (Postings.frequencyOf), which decodes at most one
+ * block per id and never lists the keyword's documents, and the lists of other operands are
+ * searched by galloping (exponential, then binary) search. Either way, intersecting a short list
+ * with a long one costs little more than the short list's length. AND NOT removes ids the same
+ * way. OR merges lists, and the document list of a keyword comes from Postings.sortedDocuments().
+ */
+public class BooleanQuery {
+
+    /**
+     * A node of the parsed query.
+     */
+    private abstract static class Node {
+        /**
+         * Returns the ids of matching documents in ascending order.
+         */
+        abstract int[] evaluate(Function<String, Postings> postingsOf, Supplier<int[]> allDocuments);
+
+        /**
+         * Adds the keywords that count towards the score of a document: those not under a NOT.
+         */
+        abstract void addScoringKeywords(List<String> keywords);
+    }
+
+    private static class Term extends Node {
+        final String keyword;
+
+        Term(String keyword) {
+            this.keyword = keyword;
+        }
+
+        int[] evaluate(Function<String, Postings> postingsOf, Supplier<int[]> allDocuments) {
+            Postings postings = postingsOf.apply(keyword);
+            return postings == null ? new int[0] : postings.sortedDocuments();
+        }
+
+        void addScoringKeywords(List<String> keywords) {
+            if (!keywords.contains(keyword)) keywords.add(keyword);
+        }
+
+        public String toString() {
+            return keyword;
+        }
+    }
+
+    private static class Not extends Node {
+        final Node operand;
+
+        Not(Node operand) {
+            this.operand = operand;
+        }
+
+        int[] evaluate(Function<String, Postings> postingsOf, Supplier<int[]> allDocuments) {
+            return subtract(allDocuments.get(), operand.evaluate(postingsOf, allDocuments));
+        }
+
+        void addScoringKeywords(List<String> keywords) {
+        }
+
+        public String toString() {
+            return "NOT " + operand;
+        }
+    }
+
+    private static class And extends Node {
+        final List<Node> operands;
+
+        And(List<Node> operands) {
+            this.operands = operands;
+        }
+
+        int[] evaluate(Function<String, Postings> postingsOf, Supplier<int[]> allDocuments) {
+            // keywords are kept as postings, searched by document id, and other operands as lists
+            ArrayList<int[]> included = new ArrayList<>();
+            ArrayList<Postings> includedPostings = new ArrayList<>();
+            ArrayList<int[]> excluded = new ArrayList<>();
+            ArrayList<Postings> excludedPostings = new ArrayList<>();
+            for (Node operand : operands) {
+                if (operand instanceof Not) {
+                    Node negated = ((Not) operand).operand;
+                    if (negated instanceof Term) {
+                        Postings postings = postingsOf.apply(((Term) negated).keyword);
+                        if (postings != null) excludedPostings.add(postings);
+                    } else {
+                        excluded.add(negated.evaluate(postingsOf, allDocuments));
+                    }
+                } else if (operand instanceof Term) {
+                    Postings postings = postingsOf.apply(((Term) operand).keyword);
+                    if (postings == null) return new int[0];
+                    includedPostings.add(postings);
+                } else {
+                    included.add(operand.evaluate(postingsOf, allDocuments));
+                }
+            }
+
+            included.sort((l1, l2) -> Integer.compare(l1.length, l2.length));
+            includedPostings.sort((p1, p2) -> Integer.compare(p1.size(), p2.size()));
+            int[] result;
+            if (!includedPostings.isEmpty()
+                    && (included.isEmpty() || includedPostings.get(0).size() < included.get(0).length)) {
+                result = includedPostings.remove(0).sortedDocuments();
+            } else if (!included.isEmpty()) {
+                result = included.remove(0);
+            } else {
+                result = allDocuments.get();
+            }
+            for (int l = 0; l < included.size() && result.length > 0; l++) {
+                result = intersect(result, included.get(l));
+            }
+            for (Postings postings : includedPostings) {
+                result = filter(result, postings, true);
+            }
+            for (int[] documents : excluded) {
+                result = subtract(result, documents);
+            }
+            for (Postings postings : excludedPostings) {
+                result = filter(result, postings, false);
+            }
+            return result;
+        }
+
+        void addScoringKeywords(List<String> keywords) {
+            for (Node operand : operands) {
+                operand.addScoringKeywords(keywords);
+            }
+        }
+
+        public String toString() {
+            return join(operands, " AND ");
+        }
+    }
+
+    private static class Or extends Node {
+        final List<Node> operands;
+
+        Or(List<Node> operands) {
+            this.operands = operands;
+        }
+
+        int[] evaluate(Function<String, Postings> postingsOf, Supplier<int[]> allDocuments) {
+            int[] result = new int[0];
+            for (Node operand : operands) {
+                result = union(result, operand.evaluate(postingsOf, allDocuments));
+            }
+            return result;
+        }
+
+        void addScoringKeywords(List<String> keywords) {
+            for (Node operand : operands) {
+                operand.addScoringKeywords(keywords);
+            }
+        }
+
+        public String toString() {
+            return join(operands, " OR ");
+        }
+    }
+
+    /**
+     * Root of the parsed query, null if no term of the query is a keyword.
+     */
+    private final Node root;
+
+    private BooleanQuery(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Parses a query.
+     *
+     * @param query  Query text
+     * @param engine Engine whose keyword test (getKeyword) is applied to the terms
+     * @return Parsed query
+     * @throws IllegalArgumentException If the query is not well formed
+     */
+    public static BooleanQuery parse(String query, LittleSearchEngine engine) {
+        List<String> tokens = tokenize(query);
+        if (tokens.isEmpty()) return new BooleanQuery(null);
+
+        Parser parser = new Parser(tokens, engine);
+        Node root = parser.or();
+        if (parser.position < parser.tokens.size()) {
+            throw new IllegalArgumentException("Unexpected '" + parser.tokens.get(parser.position)
+                    + "' in query: " + query);
+        }
+        return new BooleanQuery(root);
+    }
+
+    /**
+     * Tells whether the query can match anything: false if none of its terms is a keyword.
+     *
+     * @return True if the query has keywords
+     */
+    boolean hasKeywords() {
+        return root != null;
+    }
+
+    /**
+     * Returns the ids of the documents that match the query.
+     *
+     * @param postingsOf   Postings of a keyword, null if it is not in the index
+     * @param allDocuments Ids of all documents, in ascending order, asked for only if the query
+     *                     has a NOT
+     * @return Ids of matching documents in ascending order
+     */
+    int[] evaluate(Function<String, Postings> postingsOf, Supplier<int[]> allDocuments) {
+        return root == null ? new int[0] : root.evaluate(postingsOf, allDocuments);
+    }
+
+    /**
+     * Returns the keywords that count towards the score of a matching document: all keywords of
+     * the query that are not under a NOT.
+     *
+     * @return Scoring keywords, without duplicates
+     */
+    List<String> scoringKeywords() {
+        ArrayList<String> keywords = new ArrayList<>();
+        if (root != null) root.addScoringKeywords(keywords);
+        return keywords;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return root == null ? "" : root.toString();
+    }
+
+    /**
+     * Recursive descent parser over the tokens of a query.
+     */
+    private static class Parser {
+        final List<String> tokens;
+        final LittleSearchEngine engine;
+        int position;
+
+        Parser(List<String> tokens, LittleSearchEngine engine) {
+            this.tokens = tokens;
+            this.engine = engine;
+        }
+
+        Node or() {
+            ArrayList<Node> operands = new ArrayList<>();
+            add(operands, and());
+            while (accept("OR")) {
+                add(operands, and());
+            }
+            return combine(operands, false);
+        }
+
+        Node and() {
+            ArrayList<Node> operands = new ArrayList<>();
+            add(operands, unary());
+            while (position < tokens.size() && !peek("OR") && !peek(")")) {
+                accept("AND");
+                add(operands, unary());
+            }
+            return combine(operands, true);
+        }
+
+        Node unary() {
+            if (accept("NOT")) {
+                Node operand = unary();
+                return operand == null ? null : new Not(operand);
+            }
+            if (accept("(")) {
+                Node group = or();
+                if (!accept(")")) throw new IllegalArgumentException("Missing ')' in query");
+                return group;
+            }
+            if (position == tokens.size()) throw new IllegalArgumentException("Query ends with an operator");
+
+            String token = tokens.get(position);
+            if (token.equals(")") || token.equals("AND") || token.equals("OR")) {
+                throw new IllegalArgumentException("Unexpected '" + token + "' in query");
+            }
+            position++;
+            String keyword = engine.getKeyword(token);
+            return keyword == null ? null : new Term(keyword);
+        }
+
+        boolean peek(String token) {
+            return position < tokens.size() && tokens.get(position).equals(token);
+        }
+
+        boolean accept(String token) {
+            if (!peek(token)) return false;
+            position++;
+            return true;
+        }
+
+        private static void add(List<Node> operands, Node operand) {
+            if (operand != null) operands.add(operand);
+        }
+
+        private static Node combine(List<Node> operands, boolean and) {
+            if (operands.isEmpty()) return null;
+            if (operands.size() == 1) return operands.get(0);
+            return and ? new And(operands) : new Or(operands);
+        }
+    }
+
+    private static List<String> tokenize(String query) {
+        ArrayList<String> tokens = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= query.length(); i++) {
+            char c = i < query.length() ? query.charAt(i) : ' ';
+            if (Character.isWhitespace(c) || c == '(' || c == ')') {
+                if (word.length() > 0) {
+                    tokens.add(word.toString());
+                    word.setLength(0);
+                }
+                if (c == '(' || c == ')') tokens.add(String.valueOf(c));
+            } else {
+                word.append(c);
+            }
+        }
+        return tokens;
+    }
+
+    private static String join(List<Node> operands, String operator) {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < operands.size(); i++) {
+            if (i > 0) sb.append(operator);
+            sb.append(operands.get(i));
+        }
+        return sb.append(')').toString();
+    }
+
+    /**
+     * Ids in both lists. Each id of the shorter list is searched for in the longer one by
+     * galloping from the position of the previous id.
+     */
+    static int[] intersect(int[] a, int[] b) {
+        int[] shorter = a.length <= b.length ? a : b;
+        int[] longer = shorter == a ? b : a;
+        int[] result = new int[shorter.length];
+        int count = 0;
+        int from = 0;
+        for (int document : shorter) {
+            from = gallop(longer, from, document);
+            if (from == longer.length) break;
+            if (longer[from] == document) result[count++] = document;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Ids of a list that occur in postings (occurring true), or that do not (occurring false).
+     * Ids are searched for in ascending order with the document id skip data of the postings,
+     * so each block of the postings is decoded at most once.
+     */
+    static int[] filter(int[] documents, Postings postings, boolean occurring) {
+        int[] result = new int[documents.length];
+        int count = 0;
+        for (int document : documents) {
+            if ((postings.frequencyOf(document) > 0) == occurring) result[count++] = document;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Ids of the first list that are not in the second.
+     */
+    static int[] subtract(int[] a, int[] b) {
+        int[] result = new int[a.length];
+        int count = 0;
+        int from = 0;
+        for (int document : a) {
+            from = gallop(b, from, document);
+            if (from == b.length || b[from] != document) result[count++] = document;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Ids in either list.
+     */
+    static int[] union(int[] a, int[] b) {
+        int[] result = new int[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                result[count++] = a[i++];
+            } else if (a[i] > b[j]) {
+                result[count++] = b[j++];
+            } else {
+                result[count++] = a[i++];
+                j++;
+            }
+        }
+        while (i < a.length) result[count++] = a[i++];
+        while (j < b.length) result[count++] = b[j++];
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Finds the first position, from a starting position on, whose id is not smaller than an id:
+     * steps of 1, 2, 4, ... find a range that holds it, which is then binary searched.
+     *
+     * @return Position, documents.length if all ids from the start on are smaller
+     */
+    static int gallop(int[] documents, int from, int document) {
+        int step = 1;
+        int low = from;
+        int high = from;
+        while (high < documents.length && documents[high] < document) {
+            low = high + 1;
+            high += step;
+            step *= 2;
+        }
+        high = Math.min(high, documents.length);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (documents[mid] < document) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,212 @@
+package lse;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class generates synthetic documents whose words follow a Zipf distribution, as words of
+ * natural language roughly do: the word of rank r (counting from 1) occurs with a probability
+ * proportional to 1/r^s, so a few words are very common and most are rare. Words are made of
+ * letters, from consonant-vowel syllables, so they pass the keyword test; the most common words
+ * are used as noise words, as they would be in real text. Sentences start with a capital letter
+ * and end with punctuation, so documents also exercise the stripping of trailing punctuation.
+ * <p>
+ * Every document is generated from its own seed, so document i is the same whatever documents
+ * are generated before it, and a corpus can be generated in memory, one document at a time,
+ * without being written to disk.
+ * <p>
+ * Usage: java lse.CorpusGenerator directory documents [wordsPerDocument [vocabularySize
+ * [exponent [noiseWords [seed]]]]]
+ */
+public class CorpusGenerator {
+
+    private static final String CONSONANTS = "bcdfghjklmnprstvwxyz";
+    private static final String VOWELS = "aeiou";
+    private static final int SYLLABLES = CONSONANTS.length() * VOWELS.length();
+
+    private final int vocabularySize;
+    private final long seed;
+
+    /**
+     * Probability that a word has rank at most r+1, for every r.
+     */
+    private final double[] cumulative;
+
+    /**
+     * Initializes a generator.
+     *
+     * @param vocabularySize Number of distinct words
+     * @param exponent       Exponent s of the distribution, about 1 for natural language
+     * @param seed           Seed of all random choices
+     */
+    public CorpusGenerator(int vocabularySize, double exponent, long seed) {
+        if (vocabularySize < 1) {
+            throw new IllegalArgumentException("vocabularySize must be at least 1: " + vocabularySize);
+        }
+        this.vocabularySize = vocabularySize;
+        this.seed = seed;
+
+        cumulative = new double[vocabularySize];
+        double total = 0;
+        for (int r = 0; r < vocabularySize; r++) {
+            total += 1 / Math.pow(r + 1, exponent);
+            cumulative[r] = total;
+        }
+        for (int r = 0; r < vocabularySize; r++) {
+            cumulative[r] /= total;
+        }
+    }
+
+    /**
+     * Returns the number of distinct words.
+     *
+     * @return Vocabulary size
+     */
+    public int vocabularySize() {
+        return vocabularySize;
+    }
+
+    /**
+     * Returns the word of a rank. Ranks are written in bijective base 100, one syllable per digit,
+     * so every rank has a word of its own and common words are short.
+     *
+     * @param rank Rank, 0 for the most common word
+     * @return Word, in lower case
+     */
+    public String word(int rank) {
+        StringBuilder word = new StringBuilder();
+        int n = rank + 1;
+        while (n > 0) {
+            int digit = (n - 1) % SYLLABLES;
+            word.append(CONSONANTS.charAt(digit / VOWELS.length())).append(VOWELS.charAt(digit % VOWELS.length()));
+            n = (n - 1) / SYLLABLES;
+        }
+        return word.toString();
+    }
+
+    /**
+     * Draws the rank of a word, by binary search of a uniform number in the cumulative
+     * distribution.
+     *
+     * @param random Source of randomness
+     * @return Rank, 0..vocabularySize()-1
+     */
+    public int sampleRank(Random random) {
+        int r = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(r >= 0 ? r : -r - 1, vocabularySize - 1);
+    }
+
+    /**
+     * Returns the most common words, to be used as noise words.
+     *
+     * @param count Number of words
+     * @return Words of ranks 0..count-1
+     */
+    public List<String> noiseWords(int count) {
+        ArrayList<String> words = new ArrayList<>();
+        for (int r = 0; r < Math.min(count, vocabularySize); r++) {
+            words.add(word(r));
+        }
+        return words;
+    }
+
+    /**
+     * Generates the text of a document, in sentences of 5 to 19 words.
+     *
+     * @param index Document number, which selects its seed
+     * @param words Number of words
+     * @return Text
+     */
+    public String document(int index, int words) {
+        Random random = new Random(seed ^ (index * 0x9E3779B97F4A7C15L));
+        StringBuilder text = new StringBuilder(words * 8);
+        int sentenceLeft = 0;
+        for (int w = 0; w < words; w++) {
+            String word = word(sampleRank(random));
+            if (sentenceLeft == 0) {
+                sentenceLeft = 5 + random.nextInt(15);
+                text.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+            } else {
+                text.append(word);
+            }
+            sentenceLeft--;
+
+            if (sentenceLeft == 0 || w == words - 1) {
+                text.append(".?!".charAt(random.nextInt(3)));
+                text.append(w % 10 == 9 ? '\n' : ' ');
+            } else if (random.nextInt(12) == 0) {
+                text.append(", ");
+            } else {
+                text.append(' ');
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Returns the file name of a document, numbered so that names sort in document order.
+     *
+     * @param index Document number
+     * @return File name, without directory
+     */
+    public static String fileName(int index) {
+        return String.format("doc%07d.txt", index);
+    }
+
+    /**
+     * Writes a corpus to a directory: documents doc0000000.txt, ..., a docs.txt file listing
+     * their paths, and a noisewords.txt file, ready for LittleSearchEngine.makeIndex.
+     *
+     * @param directory  Directory, created if needed
+     * @param documents  Number of documents
+     * @param words      Number of words per document
+     * @param noiseWords Number of noise words
+     * @throws IOException If a file cannot be written
+     */
+    public void write(File directory, int documents, int words, int noiseWords) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        try (PrintWriter docsFile = new PrintWriter(new BufferedWriter(
+                new FileWriter(new File(directory, "docs.txt"))))) {
+            for (int d = 0; d < documents; d++) {
+                File docFile = new File(directory, fileName(d));
+                try (BufferedWriter out = new BufferedWriter(new FileWriter(docFile))) {
+                    out.write(document(d, words));
+                }
+                docsFile.println(docFile.getPath());
+            }
+        }
+        try (PrintWriter noiseFile = new PrintWriter(new BufferedWriter(
+                new FileWriter(new File(directory, "noisewords.txt"))))) {
+            for (String word : noiseWords(noiseWords)) {
+                noiseFile.println(word);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: java lse.CorpusGenerator directory documents "
+                    + "[wordsPerDocument [vocabularySize [exponent [noiseWords [seed]]]]]");
+            System.exit(1);
+        }
+        File directory = new File(args[0]);
+        int documents = Integer.parseInt(args[1]);
+        int words = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int vocabulary = args.length > 3 ? Integer.parseInt(args[3]) : 50000;
+        double exponent = args.length > 4 ? Double.parseDouble(args[4]) : 1.0;
+        int noiseWords = args.length > 5 ? Integer.parseInt(args[5]) : 100;
+        long seed = args.length > 6 ? Long.parseLong(args[6]) : 112;
+
+        new CorpusGenerator(vocabulary, exponent, seed).write(directory, documents, words, noiseWords);
+        System.out.println("Wrote " + documents + " documents to " + directory);
+    }
+}
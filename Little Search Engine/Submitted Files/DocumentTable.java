@@ -0,0 +1,229 @@
+package lse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class assigns dense integer ids to document names, so that postings can refer to a
+ * document with an int instead of a String. For each document it also keeps the keywords
+ * merged for it, with their frequencies, so that the document can be taken out of the postings
+ * of exactly those keywords when it is removed, and its length (total number of keyword occurrences),
+ * which is used for ranking. Ids of removed documents are not reused.
+ */
+class DocumentTable {
+
+    /**
+     * Name of each document by id, null for removed documents.
+     */
+    private final ArrayList<String> names = new ArrayList<>();
+
+    /**
+     * Id of each document by name.
+     */
+    private final HashMap<String, Integer> ids = new HashMap<>();
+
+    /**
+     * Keywords of each document by id, with frequencies in the matching slots of frequencies.
+     */
+    private final ArrayList<String[]> keywords = new ArrayList<>();
+    private final ArrayList<int[]> frequencies = new ArrayList<>();
+    private int[] keywordCounts = new int[16];
+
+    /**
+     * Length of each document by id, and total length of all documents.
+     */
+    private int[] lengths = new int[16];
+    private long totalLength;
+
+    /**
+     * Initializes an empty table.
+     */
+    DocumentTable() {
+    }
+
+    /**
+     * Initializes a copy of a table, which can then be changed independently of the original.
+     *
+     * @param other Table to copy
+     */
+    DocumentTable(DocumentTable other) {
+        names.addAll(other.names);
+        ids.putAll(other.ids);
+        for (int id = 0; id < other.names.size(); id++) {
+            String[] kws = other.keywords.get(id);
+            int[] freqs = other.frequencies.get(id);
+            keywords.add(kws == null ? null : kws.clone());
+            frequencies.add(freqs == null ? null : freqs.clone());
+        }
+        keywordCounts = other.keywordCounts.clone();
+        lengths = other.lengths.clone();
+        totalLength = other.totalLength;
+    }
+
+    /**
+     * Returns the id of a document, assigning the next id if the document is new.
+     *
+     * @param name Document name
+     * @return Document id
+     */
+    int add(String name) {
+        Integer id = ids.get(name);
+        if (id != null) return id;
+
+        id = names.size();
+        ids.put(name, id);
+        names.add(name);
+        keywords.add(new String[4]);
+        frequencies.add(new int[4]);
+        if (id == keywordCounts.length) {
+            keywordCounts = Arrays.copyOf(keywordCounts, id * 2);
+            lengths = Arrays.copyOf(lengths, id * 2);
+        }
+        return id;
+    }
+
+    /**
+     * Records that a keyword occurs in a document with the given frequency.
+     *
+     * @param id        Document id
+     * @param keyword   Keyword
+     * @param frequency Frequency of the keyword in the document
+     */
+    void addKeyword(int id, String keyword, int frequency) {
+        int count = keywordCounts[id];
+        String[] kws = keywords.get(id);
+        int[] freqs = frequencies.get(id);
+        if (count == kws.length) {
+            String[] grownKws = new String[kws.length * 2];
+            int[] grownFreqs = new int[kws.length * 2];
+            System.arraycopy(kws, 0, grownKws, 0, count);
+            System.arraycopy(freqs, 0, grownFreqs, 0, count);
+            keywords.set(id, kws = grownKws);
+            frequencies.set(id, freqs = grownFreqs);
+        }
+        kws[count] = keyword;
+        freqs[count] = frequency;
+        keywordCounts[id] = count + 1;
+        lengths[id] += frequency;
+        totalLength += frequency;
+    }
+
+    /**
+     * Removes a document. Its id is not reused.
+     *
+     * @param id Document id
+     */
+    void remove(int id) {
+        ids.remove(names.get(id));
+        names.set(id, null);
+        keywords.set(id, null);
+        frequencies.set(id, null);
+        keywordCounts[id] = 0;
+        totalLength -= lengths[id];
+        lengths[id] = 0;
+    }
+
+    /**
+     * Returns the id of a document.
+     *
+     * @param name Document name
+     * @return Document id, -1 if the document is not in the table
+     */
+    int idOf(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the name of a document.
+     *
+     * @param id Document id
+     * @return Document name, null if the document was removed
+     */
+    String name(int id) {
+        return names.get(id);
+    }
+
+    /**
+     * Returns the number of keywords recorded for a document.
+     *
+     * @param id Document id
+     * @return Number of keywords
+     */
+    int keywordCount(int id) {
+        return keywordCounts[id];
+    }
+
+    /**
+     * Returns the i-th keyword recorded for a document.
+     *
+     * @param id Document id
+     * @param i  Keyword index, 0..keywordCount(id)-1
+     * @return Keyword
+     */
+    String keyword(int id, int i) {
+        return keywords.get(id)[i];
+    }
+
+    /**
+     * Returns the frequency of the i-th keyword recorded for a document.
+     *
+     * @param id Document id
+     * @param i  Keyword index, 0..keywordCount(id)-1
+     * @return Frequency
+     */
+    int frequency(int id, int i) {
+        return frequencies.get(id)[i];
+    }
+
+    /**
+     * Returns the length of a document.
+     *
+     * @param id Document id
+     * @return Total number of keyword occurrences in the document, 0 if it was removed
+     */
+    int length(int id) {
+        return lengths[id];
+    }
+
+    /**
+     * Returns the total length of all documents.
+     *
+     * @return Total number of keyword occurrences in all documents
+     */
+    long totalLength() {
+        return totalLength;
+    }
+
+    /**
+     * Returns the number of ids assigned so far, including those of removed documents.
+     *
+     * @return Upper bound of document ids
+     */
+    int capacity() {
+        return names.size();
+    }
+
+    /**
+     * Returns the number of documents in the table.
+     *
+     * @return Number of documents not removed
+     */
+    int size() {
+        return ids.size();
+    }
+
+    /**
+     * Removes all documents.
+     */
+    void clear() {
+        names.clear();
+        ids.clear();
+        keywords.clear();
+        frequencies.clear();
+        keywordCounts = new int[16];
+        lengths = new int[16];
+        totalLength = 0;
+    }
+}
@@ -0,0 +1,319 @@
+package lse;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * This class is an immutable, on-disk image of a keywords index. The file is memory mapped
+ * when opened, and nothing is decoded up front: keywords are found by binary search over the
+ * sorted term dictionary in the mapped file, and only the postings of the keywords that are
+ * actually looked up are read, a block at a time as a search decodes them.
+ * <p>
+ * File layout (all ints big endian):
+ * <pre>
+ * header        MAGIC, documentCount, termCount, documentNamesLength, termNamesLength,
+ *               totalLength (long)
+ * docEnds       documentCount ints, end of each document name in the document names area
+ * docLengths    documentCount ints, length (number of keyword occurrences) of each document
+ * termEnds      termCount ints, end of each term in the term names area
+ * postingStarts termCount+1 ints, start of each term's postings in the postings area
+ * document names, term names (UTF-8, terms in sorted order), postings
+ * </pre>
+ * The postings of a term are its (document id, frequency) pairs in the same (descending frequency)
+ * order as in keywordsIndex, with document ids renumbered densely. They are written by
+ * Postings.write, in the same blocks as in memory (document id deltas and frequency drops as
+ * varints) with their skip data, so opening a term reads its skip data only.
+ */
+class IndexSegment {
+
+    private static final int MAGIC = 0x4C534533;
+
+    private static final int HEADER_SIZE = 5 * 4 + 8;
+
+    private final ByteBuffer buffer;
+
+    private final int documentCount;
+    private final int termCount;
+    private final long totalLength;
+
+    private final int docEndsStart;
+    private final int docLengthsStart;
+    private final int termEndsStart;
+    private final int postingStartsStart;
+    private final int documentNamesStart;
+    private final int termNamesStart;
+    private final int postingsStart;
+
+    /**
+     * Document names, decoded the first time each one is needed.
+     */
+    private final String[] documents;
+
+    private IndexSegment(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not an index file");
+        }
+        documentCount = buffer.getInt(4);
+        termCount = buffer.getInt(8);
+        int documentNamesLength = buffer.getInt(12);
+        int termNamesLength = buffer.getInt(16);
+        totalLength = buffer.getLong(20);
+
+        docEndsStart = HEADER_SIZE;
+        docLengthsStart = docEndsStart + 4 * documentCount;
+        termEndsStart = docLengthsStart + 4 * documentCount;
+        postingStartsStart = termEndsStart + 4 * termCount;
+        documentNamesStart = postingStartsStart + 4 * (termCount + 1);
+        termNamesStart = documentNamesStart + documentNamesLength;
+        postingsStart = termNamesStart + termNamesLength;
+        if (postingsStart + postingStart(termCount) != buffer.capacity()) {
+            throw new IOException("Truncated index file");
+        }
+
+        documents = new String[documentCount];
+    }
+
+    /**
+     * Writes the given keywords index to a file in the segment format. Documents are renumbered
+     * densely, in the same relative order, which leaves no gaps for removed documents.
+     *
+     * @param index     Keywords index, each postings in descending order of frequencies
+     * @param documents Table of the documents referred to by the postings
+     * @param indexFile File to write
+     * @throws IOException If the file cannot be written
+     */
+    static void write(Map<String, Postings> index, DocumentTable documents, File indexFile)
+            throws IOException {
+        // keywords are all letters, so there are no surrogate chars and String order is
+        // the same as the UTF-8 byte order used by the binary search
+        String[] terms = index.keySet().toArray(new String[0]);
+        Arrays.sort(terms);
+
+        int[] documentIds = new int[documents.capacity()];
+        ByteArrayOutputStream documentNames = new ByteArrayOutputStream();
+        ArrayList<Integer> docEnds = new ArrayList<>();
+        ArrayList<Integer> docLengths = new ArrayList<>();
+        for (int document = 0; document < documents.capacity(); document++) {
+            if (documents.name(document) == null) continue;
+
+            documentIds[document] = docEnds.size();
+            byte[] name = documents.name(document).getBytes(StandardCharsets.UTF_8);
+            documentNames.write(name, 0, name.length);
+            docEnds.add(documentNames.size());
+            docLengths.add(documents.length(document));
+        }
+        ByteArrayOutputStream termNames = new ByteArrayOutputStream();
+        int[] termEnds = new int[terms.length];
+        ByteArrayOutputStream postings = new ByteArrayOutputStream();
+        DataOutputStream postingsOut = new DataOutputStream(postings);
+        int[] postingStarts = new int[terms.length + 1];
+
+        for (int t = 0; t < terms.length; t++) {
+            byte[] term = terms[t].getBytes(StandardCharsets.UTF_8);
+            termNames.write(term, 0, term.length);
+            termEnds[t] = termNames.size();
+
+            postingStarts[t] = postings.size();
+            Postings termPostings = index.get(terms[t]);
+            int[] pairs = new int[2 * termPostings.size()];
+            for (int i = 0; i < termPostings.size(); i++) {
+                pairs[2 * i] = documentIds[termPostings.document(i)];
+                pairs[2 * i + 1] = termPostings.frequency(i);
+            }
+            new Postings(pairs, termPostings.size()).write(postingsOut);
+        }
+        postingsOut.flush();
+        postingStarts[terms.length] = postings.size();
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(docEnds.size());
+            out.writeInt(terms.length);
+            out.writeInt(documentNames.size());
+            out.writeInt(termNames.size());
+            out.writeLong(documents.totalLength());
+            for (int end : docEnds) out.writeInt(end);
+            for (int length : docLengths) out.writeInt(length);
+            for (int end : termEnds) out.writeInt(end);
+            for (int start : postingStarts) out.writeInt(start);
+            documentNames.writeTo(out);
+            termNames.writeTo(out);
+            postings.writeTo(out);
+        }
+    }
+
+    /**
+     * Opens an index file written by write, by memory mapping it.
+     *
+     * @param indexFile Index file
+     * @return Segment backed by the mapped file
+     * @throws IOException If the file cannot be read, or is not an index file
+     */
+    static IndexSegment open(File indexFile) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+             FileChannel channel = file.getChannel()) {
+            return new IndexSegment(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Returns the number of documents in this segment.
+     *
+     * @return Number of documents
+     */
+    int documentCount() {
+        return documentCount;
+    }
+
+    /**
+     * Returns the length of a document.
+     *
+     * @param id Document id, 0..documentCount()-1
+     * @return Number of keyword occurrences in the document
+     */
+    int documentLength(int id) {
+        return buffer.getInt(docLengthsStart + 4 * id);
+    }
+
+    /**
+     * Returns the total length of all documents in this segment.
+     *
+     * @return Total number of keyword occurrences
+     */
+    long totalLength() {
+        return totalLength;
+    }
+
+    /**
+     * Returns the number of distinct keywords in this segment.
+     *
+     * @return Number of keywords
+     */
+    int termCount() {
+        return termCount;
+    }
+
+    /**
+     * Returns the keyword at a position in the sorted term dictionary.
+     *
+     * @param t Position of keyword, 0..termCount()-1
+     * @return Keyword
+     */
+    String term(int t) {
+        int start = t == 0 ? 0 : buffer.getInt(termEndsStart + 4 * (t - 1));
+        int end = buffer.getInt(termEndsStart + 4 * t);
+        return decode(termNamesStart + start, end - start);
+    }
+
+    /**
+     * Returns the name of a document.
+     *
+     * @param id Document id, 0..documentCount()-1
+     * @return Document name
+     */
+    String document(int id) {
+        String document = documents[id];
+        if (document == null) {
+            int start = id == 0 ? 0 : buffer.getInt(docEndsStart + 4 * (id - 1));
+            int end = buffer.getInt(docEndsStart + 4 * id);
+            document = decode(documentNamesStart + start, end - start);
+            documents[id] = document;
+        }
+        return document;
+    }
+
+    /**
+     * Finds a keyword in the sorted term dictionary by binary search.
+     *
+     * @param keyword Keyword to find
+     * @return Position of the keyword if found, otherwise (-(insertion point) - 1)
+     */
+    int findTerm(String keyword) {
+        byte[] key = keyword.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int start = mid == 0 ? 0 : buffer.getInt(termEndsStart + 4 * (mid - 1));
+            int end = buffer.getInt(termEndsStart + 4 * mid);
+            int cmp = compare(termNamesStart + start, end - start, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Reads the postings of a keyword.
+     *
+     * @param keyword Keyword
+     * @return Postings of the keyword in descending order of frequencies, with document ids of
+     * this segment, null if the keyword is not in this segment
+     */
+    Postings postings(String keyword) {
+        int t = findTerm(keyword);
+        return t < 0 ? null : postings(t);
+    }
+
+    /**
+     * Reads the postings of the keyword at a position in the term dictionary. Only their skip
+     * data is read here; their blocks are read from the mapped file as they are decoded.
+     *
+     * @param t Position of keyword, 0..termCount()-1
+     * @return Postings of the keyword in descending order of frequencies, with document ids of
+     * this segment
+     */
+    Postings postings(int t) {
+        return Postings.read(buffer, postingsStart + postingStart(t));
+    }
+
+    /**
+     * Returns the number of documents in which the keyword at a position in the term dictionary
+     * occurs, without reading its postings.
+     *
+     * @param t Position of keyword, 0..termCount()-1
+     * @return Number of (document id, frequency) pairs in the postings of the keyword
+     */
+    int documentFrequency(int t) {
+        return Postings.readSize(buffer, postingsStart + postingStart(t));
+    }
+
+    private int postingStart(int t) {
+        return buffer.getInt(postingStartsStart + 4 * t);
+    }
+
+    private int compare(int start, int length, byte[] key) {
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (buffer.get(start + i) & 0xFF) - (key[i] & 0xFF);
+            if (cmp != 0) return cmp;
+        }
+        return length - key.length;
+    }
+
+    private String decode(int start, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,326 @@
+package lse;
+
+import java.io.CharArrayReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class adds a stream of documents to a LittleSearchEngine in three stages connected by
+ * bounded queues: a reader thread reads the text of each document, tokenizer threads scan the
+ * texts into keywords, and the calling thread merges the keywords into the index. When a queue is
+ * full, the stage feeding it waits, so a slow stage holds back the stages before it instead of
+ * letting texts pile up in memory; at most about twice the queue capacity documents are held at
+ * any time.
+ * <p>
+ * Documents come from an Iterator of document file names, which may block in hasNext() or next()
+ * while waiting for more documents (for instance an iterator that takes names from a
+ * BlockingQueue), so ingestion can go on for as long as the source does. A document that is
+ * already indexed is replaced. With more than one tokenizer thread, documents may be merged in a
+ * slightly different order than the source gives them, which only affects the order of
+ * equal-frequency occurrences.
+ * <p>
+ * The throughput of each stage can be read while the pipeline runs, from any thread.
+ */
+public class IngestPipeline {
+
+    /**
+     * Counters of one stage.
+     */
+    public static class Stage {
+        private final String name;
+        private final AtomicLong documents = new AtomicLong();
+        private final AtomicLong chars = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+        private final AtomicLong blockedNanos = new AtomicLong();
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Returns the name of this stage: "reader", "tokenizer" or "merger".
+         *
+         * @return Stage name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the number of documents this stage has passed on.
+         *
+         * @return Number of documents
+         */
+        public long getDocuments() {
+            return documents.get();
+        }
+
+        /**
+         * Returns the number of characters of text in the documents this stage has passed on.
+         * The merger only sees keywords, and does not count characters.
+         *
+         * @return Number of characters
+         */
+        public long getChars() {
+            return chars.get();
+        }
+
+        /**
+         * Returns the time spent working, summed over the threads of this stage.
+         *
+         * @return Busy time in nanoseconds
+         */
+        public long getBusyNanos() {
+            return busyNanos.get();
+        }
+
+        /**
+         * Returns the time spent waiting for room in the next queue, summed over the threads of
+         * this stage. A stage that spends much time blocked is faster than the stage after it.
+         *
+         * @return Blocked time in nanoseconds
+         */
+        public long getBlockedNanos() {
+            return blockedNanos.get();
+        }
+
+        /**
+         * Returns the number of documents per second of busy time, per thread of this stage.
+         *
+         * @return Documents per second, 0 if no document was processed yet
+         */
+        public double getDocumentsPerSecond() {
+            long nanos = busyNanos.get();
+            return nanos == 0 ? 0 : documents.get() * 1e9 / nanos;
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#toString()
+         */
+        public String toString() {
+            return String.format("%s: %d docs, %d chars, %.1f docs/s, blocked %d ms",
+                    name, getDocuments(), getChars(), getDocumentsPerSecond(), getBlockedNanos() / 1000000);
+        }
+    }
+
+    /**
+     * Text of a document, as read by the reader stage.
+     */
+    private static class Text {
+        final String docFile;
+        final char[] chars;
+        final int length;
+
+        Text(String docFile, char[] chars, int length) {
+            this.docFile = docFile;
+            this.chars = chars;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Marks the end of the input in both queues.
+     */
+    private static final Text END_OF_TEXTS = new Text(null, null, 0);
+    private static final LittleSearchEngine.ScannedDocument END_OF_SCANS =
+            new LittleSearchEngine.ScannedDocument(null, false);
+
+    private final LittleSearchEngine engine;
+    private final int tokenizerThreads;
+    private final int queueCapacity;
+
+    private final Stage reader = new Stage("reader");
+    private final Stage tokenizer = new Stage("tokenizer");
+    private final Stage merger = new Stage("merger");
+
+    /**
+     * Initializes a pipeline into an engine. Noise words must be loaded into the engine with
+     * loadNoiseWords before documents are ingested.
+     *
+     * @param engine           Engine to add documents to
+     * @param tokenizerThreads Number of tokenizer threads
+     * @param queueCapacity    Maximum number of documents waiting in each queue
+     */
+    public IngestPipeline(LittleSearchEngine engine, int tokenizerThreads, int queueCapacity) {
+        if (tokenizerThreads < 1) {
+            throw new IllegalArgumentException("tokenizerThreads must be at least 1: " + tokenizerThreads);
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be at least 1: " + queueCapacity);
+        }
+        this.engine = engine;
+        this.tokenizerThreads = tokenizerThreads;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Ingests documents until the source has no more. The engine must not be used by other
+     * threads until this returns. If a stage fails, the other stages are stopped and the failure
+     * is thrown here; documents merged before the failure stay in the index.
+     *
+     * @param docFiles Names of the document files to be added
+     * @throws FileNotFoundException If a document file is not found on disk
+     */
+    public void ingest(Iterator<String> docFiles) throws FileNotFoundException {
+        BlockingQueue<Text> texts = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<LittleSearchEngine.ScannedDocument> scans = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        boolean withPositions = engine.positionsIndexed();
+
+        ExecutorService pool = Executors.newFixedThreadPool(1 + tokenizerThreads);
+        try {
+            pool.execute(() -> read(docFiles, texts, failure));
+            for (int t = 0; t < tokenizerThreads; t++) {
+                pool.execute(() -> tokenize(texts, scans, withPositions, failure));
+            }
+
+            int ended = 0;
+            while (ended < tokenizerThreads) {
+                LittleSearchEngine.ScannedDocument scanned = scans.take();
+                // a failing stage always sends END_OF_SCANS down, directly or through the
+                // tokenizers, so this is reached without waiting for the other stages to end;
+                // the reader may be blocked in the source, and is interrupted below
+                if (failure.get() != null) break;
+                if (scanned == END_OF_SCANS) {
+                    ended++;
+                    continue;
+                }
+
+                long start = System.nanoTime();
+                engine.addScanned(scanned);
+                merger.busyNanos.addAndGet(System.nanoTime() - start);
+                merger.documents.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while ingesting", e);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        Throwable cause = failure.get();
+        if (cause instanceof FileNotFoundException) throw (FileNotFoundException) cause;
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause != null) throw new IllegalStateException(cause);
+    }
+
+    /**
+     * Returns the counters of the reader stage.
+     *
+     * @return Reader stage
+     */
+    public Stage readerStage() {
+        return reader;
+    }
+
+    /**
+     * Returns the counters of the tokenizer stage.
+     *
+     * @return Tokenizer stage
+     */
+    public Stage tokenizerStage() {
+        return tokenizer;
+    }
+
+    /**
+     * Returns the counters of the merger stage.
+     *
+     * @return Merger stage
+     */
+    public Stage mergerStage() {
+        return merger;
+    }
+
+    private void read(Iterator<String> docFiles, BlockingQueue<Text> texts,
+                      AtomicReference<Throwable> failure) {
+        try {
+            while (failure.get() == null && docFiles.hasNext()) {
+                String docFile = docFiles.next();
+
+                long start = System.nanoTime();
+                Text text = readText(docFile);
+                reader.busyNanos.addAndGet(System.nanoTime() - start);
+                reader.documents.incrementAndGet();
+                reader.chars.addAndGet(text.length);
+
+                put(texts, text, reader);
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+        }
+
+        try {
+            for (int t = 0; t < tokenizerThreads; t++) {
+                texts.put(END_OF_TEXTS);
+            }
+        } catch (InterruptedException e) {
+            // stopped by ingest
+        }
+    }
+
+    private void tokenize(BlockingQueue<Text> texts, BlockingQueue<LittleSearchEngine.ScannedDocument> scans,
+                          boolean withPositions, AtomicReference<Throwable> failure) {
+        try {
+            try {
+                Text text;
+                while ((text = texts.take()) != END_OF_TEXTS) {
+                    if (failure.get() != null) continue;
+
+                    long start = System.nanoTime();
+                    Reader chars = new CharArrayReader(text.chars, 0, text.length);
+                    LittleSearchEngine.ScannedDocument scanned = engine.scanDocument(text.docFile, chars, withPositions);
+                    tokenizer.busyNanos.addAndGet(System.nanoTime() - start);
+                    tokenizer.documents.incrementAndGet();
+                    tokenizer.chars.addAndGet(text.length);
+
+                    put(scans, scanned, tokenizer);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+            scans.put(END_OF_SCANS);
+        } catch (InterruptedException e) {
+            // stopped by ingest
+        }
+    }
+
+    private static <T> void put(BlockingQueue<T> queue, T item, Stage stage) throws InterruptedException {
+        if (queue.offer(item)) return;
+
+        long start = System.nanoTime();
+        queue.put(item);
+        stage.blockedNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    private static Text readText(String docFile) throws FileNotFoundException {
+        try (Reader in = new FileReader(docFile)) {
+            char[] chars = new char[8192];
+            int length = 0;
+            int n;
+            while ((n = in.read(chars, length, chars.length - length)) != -1) {
+                length += n;
+                if (length == chars.length) chars = Arrays.copyOf(chars, chars.length * 2);
+            }
+            return new Text(docFile, chars, length);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
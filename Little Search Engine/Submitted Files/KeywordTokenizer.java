@@ -0,0 +1,113 @@
+package lse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+
+/**
+ * This class splits a character stream into whitespace separated words (the same words
+ * Scanner.next() would return) and runs an Analyzer on each word directly on a reusable
+ * character buffer. No string is created for a word unless the analyzer keeps it and the caller
+ * asks for it with keyword().
+ */
+class KeywordTokenizer implements Closeable {
+
+    private final Reader reader;
+    private final Analyzer analyzer;
+    private final NoiseWordSet noiseWords;
+
+    /**
+     * Characters read from the reader, valid from position to limit.
+     */
+    private final char[] buffer = new char[8192];
+    private int position;
+    private int limit;
+
+    /**
+     * The current word, analyzed in place, and its keyword length (-1 if dropped by the analyzer).
+     */
+    private char[] word = new char[64];
+    private int wordLength;
+    private int keywordLength;
+
+    /**
+     * Initializes this tokenizer over the given reader.
+     *
+     * @param reader     Source of characters, closed by close()
+     * @param analyzer   Analyzer of words
+     * @param noiseWords Noise words, for the analyzer
+     */
+    KeywordTokenizer(Reader reader, Analyzer analyzer, NoiseWordSet noiseWords) {
+        this.reader = reader;
+        this.analyzer = analyzer;
+        this.noiseWords = noiseWords;
+    }
+
+    /**
+     * Advances to the next word in the input.
+     *
+     * @return True if there was another word, false at the end of input
+     */
+    boolean next() {
+        int c = read();
+        while (c != -1 && Character.isWhitespace((char) c)) {
+            c = read();
+        }
+        if (c == -1) return false;
+
+        wordLength = 0;
+        while (c != -1 && !Character.isWhitespace((char) c)) {
+            if (wordLength == word.length) {
+                char[] grown = new char[word.length * 2];
+                System.arraycopy(word, 0, grown, 0, wordLength);
+                word = grown;
+            }
+            word[wordLength++] = (char) c;
+            c = read();
+        }
+        keywordLength = analyzer.analyze(word, wordLength, noiseWords);
+        return true;
+    }
+
+    /**
+     * Tells whether the current word is a keyword.
+     *
+     * @return True if the analyzer kept the current word
+     */
+    boolean isKeyword() {
+        return keywordLength > 0;
+    }
+
+    /**
+     * Returns the current word as a keyword.
+     *
+     * @return Keyword, as produced by the analyzer, null if the analyzer dropped the current word
+     */
+    String keyword() {
+        return keywordLength > 0 ? new String(word, 0, keywordLength) : null;
+    }
+
+    private int read() {
+        if (position == limit) {
+            try {
+                limit = reader.read(buffer, 0, buffer.length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.Closeable#close()
+     */
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,177 @@
+package lse;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class records durations in a histogram with a fixed number of buckets, in the manner of
+ * HdrHistogram: every power of two range of values is split into 32 equal buckets, so a value is
+ * recorded with a precision of about 3% whatever its magnitude, from nanoseconds to hours, in
+ * constant memory. Recording is a few arithmetic operations and an atomic increment, and may be
+ * done by several threads at once.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Number of bits of a value kept as sub-bucket, 32 sub-buckets per power of two.
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Enough buckets for any non-negative long.
+     */
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * A consistent copy of a histogram at one point in time.
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long sum, long max) {
+            this.counts = counts;
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            this.count = total;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * Returns the number of recorded values.
+         *
+         * @return Number of values
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the mean of the recorded values.
+         *
+         * @return Mean in nanoseconds, 0 if there are none
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * Returns the largest recorded value.
+         *
+         * @return Maximum in nanoseconds, 0 if there are none
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Returns a value that the given fraction of recorded values do not exceed, to within
+         * the precision of the buckets.
+         *
+         * @param quantile Fraction, 0 to 1, for instance 0.99 for the 99th percentile
+         * @return Value in nanoseconds, 0 if there are none
+         */
+        public long getValueAtQuantile(double quantile) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int b = 0; b < counts.length; b++) {
+                seen += counts[b];
+                if (seen >= rank) return Math.min(highestValue(b), max);
+            }
+            return max;
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#toString()
+         */
+        public String toString() {
+            return String.format("count=%d mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus", count,
+                    getMean() / 1000, getValueAtQuantile(0.5) / 1000.0,
+                    getValueAtQuantile(0.99) / 1000.0, max / 1000.0);
+        }
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param nanos Duration in nanoseconds; negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(value));
+        count.increment();
+        sum.add(value);
+        long currentMax;
+        while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+            // retry
+        }
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return Number of values
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Takes a snapshot. Values recorded while it is taken may or may not be in it.
+     *
+     * @return Snapshot
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int b = 0; b < BUCKETS; b++) {
+            copy[b] = counts.get(b);
+        }
+        return new Snapshot(copy, sum.sum(), max.get());
+    }
+
+    /**
+     * Removes all recorded values.
+     */
+    public void reset() {
+        for (int b = 0; b < BUCKETS; b++) {
+            counts.set(b, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    /**
+     * Values below 32 have a bucket each; above, the bucket is the position of the highest bit
+     * followed by the next 5 bits.
+     */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * Highest value that goes in a bucket.
+     */
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -2,7 +2,16 @@ package lse;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * This class builds an index of keywords. Each keyword maps to a set of pages in
@@ -12,27 +21,209 @@ public class LittleSearchEngine {
 
     /**
      * This is a hash table of all keywords. The key is the actual keyword, and the associated value is
-     * an array list of all occurrences of the keyword in documents. The array list is maintained in
+     * the postings of the keyword: a (document id, frequency) pair for every document it occurs in,
+     * with document names held only once, in the documents table. The postings are maintained in
      * DESCENDING order of frequencies.
      */
-    HashMap<String, ArrayList<Occurrence>> keywordsIndex;
+    HashMap<String, Postings> keywordsIndex;
 
     /**
-     * The hash set of all noise words.
+     * The hash set of all noise words. Only changed through addNoiseWord, which drops
+     * noiseWordSet.
      */
-    HashSet<String> noiseWords;
+    private final HashSet<String> noiseWords;
 
     /**
-     * Creates the keyWordsIndex and noiseWords hash tables.
+     * Immutable copy of noiseWords that is queried on character buffers, null until needed and
+     * whenever a noise word has been added since it was built.
+     */
+    private NoiseWordSet noiseWordSet;
+
+    /**
+     * Turns words of documents and queries into keywords. The default applies the keyword test
+     * described in getKeyword.
+     */
+    Analyzer analyzer = Analyzer.standard();
+
+    /**
+     * Counters and latencies of indexing and searching.
+     */
+    final SearchMetrics metrics;
+
+    /*
+     * Metrics updated for every document or query, looked up once in metrics
+     */
+    private final LongAdder documentsScanned;
+    private final LongAdder documentsMerged;
+    private final LongAdder documentsRemoved;
+    private final LongAdder postingsInserts;
+    private final LongAdder postingsInsertProbes;
+    private final LongAdder cacheHits;
+    private final LongAdder cacheMisses;
+    private final LatencyHistogram scanLatency;
+    private final LatencyHistogram mergeLatency;
+    private final SearchMetrics.QueryMetrics top5Queries;
+    private final SearchMetrics.QueryMetrics topKQueries;
+    private final SearchMetrics.QueryMetrics scoredQueries;
+    private final SearchMetrics.QueryMetrics phraseQueries;
+    private final SearchMetrics.QueryMetrics proximityQueries;
+    private final SearchMetrics.QueryMetrics wildcardQueries;
+    private final SearchMetrics.QueryMetrics booleanQueries;
+
+    /**
+     * The table of all indexed documents, which assigns the document ids used in postings. It also
+     * records the keywords of each document, which lets a document be removed without scanning the index.
+     */
+    DocumentTable documents;
+
+    /**
+     * Index file opened with openIndex, null if the index was built in memory. When set, searches
+     * read occurrences from this segment and the index cannot be changed.
+     */
+    IndexSegment openedIndex;
+
+    /**
+     * Ranking used by topKSearch, and the normalization factor it gives each document by id.
+     * The factors are computed when first needed after the index changes.
+     */
+    Scorer scorer = Scorer.FREQUENCY;
+    float[] norms;
+    float maxNorm;
+
+    /**
+     * Cache of search results, null if caching is off (the default).
+     */
+    QueryCache queryCache;
+
+    /**
+     * Positions of keywords in documents, for phrase and proximity searches. Null if positions
+     * are not indexed (the default), which saves the memory they take.
+     */
+    PositionIndex positionIndex;
+
+    /**
+     * Sorted keywords, for prefix, wildcard and range queries. Built when first needed, and
+     * dropped whenever a keyword is added to or removed from the index.
+     */
+    TermDictionary termDictionary;
+
+    /**
+     * Deletion index of the term dictionary, for spelling suggestions. Built when first needed,
+     * and dropped with the term dictionary.
+     */
+    SpellingIndex spellingIndex;
+
+    /**
+     * True once freeze has been called: the index no longer changes, and may be searched by
+     * several threads at once.
+     */
+    boolean frozen;
+
+    /**
+     * Keywords of a scanned document, and their positions if positions are indexed.
+     */
+    static class ScannedDocument {
+        final String docFile;
+        final HashMap<String, Occurrence> keywords = new HashMap<>();
+        final HashMap<String, int[]> positions;
+
+        ScannedDocument(String docFile, boolean withPositions) {
+            this.docFile = docFile;
+            this.positions = withPositions ? new HashMap<>() : null;
+        }
+    }
+
+    /**
+     * Creates the keyWordsIndex and noiseWords hash tables, and the documents table.
      */
     public LittleSearchEngine() {
-        keywordsIndex = new HashMap<String, ArrayList<Occurrence>>(1000, 2.0f);
+        this(new SearchMetrics());
+    }
+
+    /**
+     * Creates an empty engine that records its work in the given metrics, which may be shared
+     * with other engines.
+     */
+    LittleSearchEngine(SearchMetrics metrics) {
+        this.metrics = metrics;
+        documentsScanned = metrics.counter("documents.scanned");
+        documentsMerged = metrics.counter("documents.merged");
+        documentsRemoved = metrics.counter("documents.removed");
+        postingsInserts = metrics.counter("postings.inserts");
+        postingsInsertProbes = metrics.counter("postings.insert.probes");
+        cacheHits = metrics.counter("cache.hits");
+        cacheMisses = metrics.counter("cache.misses");
+        scanLatency = metrics.latency("scan");
+        mergeLatency = metrics.latency("merge");
+        top5Queries = metrics.query("top5search");
+        topKQueries = metrics.query("topKSearch");
+        scoredQueries = metrics.query("scoredSearch");
+        phraseQueries = metrics.query("phraseSearch");
+        proximityQueries = metrics.query("proximitySearch");
+        wildcardQueries = metrics.query("wildcardSearch");
+        booleanQueries = metrics.query("booleanSearch");
+        keywordsIndex = new HashMap<String, Postings>(1000, 2.0f);
         noiseWords = new HashSet<String>(100, 2.0f);
+        documents = new DocumentTable();
+    }
+
+    /**
+     * Returns a writable copy of this engine, with the same noise words, documents, postings,
+     * positions and scorer, and sharing its metrics; the query cache is not copied. Changes to
+     * the copy do not affect this engine, so this engine can go on being searched while the
+     * copy is changed.
+     */
+    LittleSearchEngine copy() {
+        LittleSearchEngine copy = new LittleSearchEngine(metrics);
+        for (Map.Entry<String, Postings> entry : keywordsIndex.entrySet()) {
+            copy.keywordsIndex.put(entry.getKey(), new Postings(entry.getValue()));
+        }
+        copy.noiseWords.addAll(noiseWords);
+        copy.noiseWordSet = noiseWordSet;
+        copy.analyzer = analyzer;
+        copy.documents = new DocumentTable(documents);
+        copy.openedIndex = openedIndex;
+        copy.scorer = scorer;
+        copy.norms = norms;
+        copy.maxNorm = maxNorm;
+        copy.positionIndex = positionIndex == null ? null : new PositionIndex(positionIndex);
+        copy.termDictionary = termDictionary;
+        copy.spellingIndex = spellingIndex;
+        return copy;
+    }
+
+    /**
+     * Makes the index read only, so that it can be searched by several threads at once. Whatever
+     * queries would otherwise compute and keep the first time they need it (the noise word set,
+     * the normalization factor of every document, the term dictionary) is computed now, and the
+     * query cache, which changes on every lookup, is turned off. From then on, anything that
+     * would change the index, its noise words, its scorer or its cache throws an
+     * IllegalStateException. The spelling index of suggestKeywords, which is large, is still built
+     * when first needed; it never changes once built, so threads that race to build it each get
+     * a complete one.
+     */
+    public void freeze() {
+        noiseWordSet();
+        norms();
+        termDictionary();
+        queryCache = null;
+        frozen = true;
+    }
+
+    /**
+     * Tells whether freeze has been called.
+     *
+     * @return True if the index is read only and may be searched by several threads at once
+     */
+    public boolean isFrozen() {
+        return frozen;
     }
 
     /**
      * Scans a document, and loads all keywords found into a hash table of keyword occurrences
-     * in the document. Uses the getKeyWord method to separate keywords from other words.
+     * in the document. Words are read and tested with a KeywordTokenizer, which applies the same
+     * keyword test as getKeyword on a reusable character buffer, so no strings are created
+     * for words that are not keywords.
      *
      * @param docFile Name of the document file to be scanned and loaded
      * @return Hash table of keywords in the given document, each associated with an Occurrence object
@@ -40,48 +231,117 @@ public class LittleSearchEngine {
      */
     public HashMap<String, Occurrence> loadKeywordsFromDocument(String docFile)
             throws FileNotFoundException {
+        return scanDocument(docFile, false).keywords;
+    }
 
-        HashMap<String, Occurrence> keywordsMap = new HashMap<>();
-        Scanner sc = new Scanner(new File(docFile));
+    /**
+     * Scans a document as loadKeywordsFromDocument does, also recording the position (index among
+     * all words of the document) of every keyword occurrence if asked to.
+     */
+    private ScannedDocument scanDocument(String docFile, boolean withPositions)
+            throws FileNotFoundException {
+        return scanDocument(docFile, new FileReader(docFile), withPositions);
+    }
 
-        while (sc.hasNext()) {
-            String word = sc.next();
-            String keyword = getKeyword(word);
+    /**
+     * Scans the text of a document, read from any source, as scanDocument(docFile, withPositions)
+     * does. The reader is closed when done.
+     */
+    ScannedDocument scanDocument(String docFile, Reader text, boolean withPositions) {
+        long start = System.nanoTime();
+        ScannedDocument scanned = new ScannedDocument(docFile, withPositions);
+        HashMap<String, Occurrence> keywordsMap = scanned.keywords;
+        NoiseWordSet noise = noiseWordSet();
+
+        try (KeywordTokenizer tokenizer = new KeywordTokenizer(text, analyzer, noise)) {
+            int position = -1;
+            while (tokenizer.next()) {
+                position++;
+                if (!tokenizer.isKeyword()) continue;
+
+                String keyword = tokenizer.keyword();
 
-            if (keyword != null) {
-                int frequency = 0;
                 Occurrence existing = keywordsMap.get(keyword);
                 if (existing != null) {
-                    frequency = existing.frequency;
+                    existing.frequency++;
+                } else {
+                    existing = new Occurrence(docFile, 1);
+                    keywordsMap.put(keyword, existing);
                 }
 
-                Occurrence updated = new Occurrence(docFile, ++frequency);
-                keywordsMap.put(keyword, updated);
+                if (withPositions) {
+                    int[] positions = scanned.positions.get(keyword);
+                    if (positions == null || positions.length < existing.frequency) {
+                        positions = Arrays.copyOf(positions == null ? new int[0] : positions,
+                                Math.max(4, existing.frequency * 2));
+                        scanned.positions.put(keyword, positions);
+                    }
+                    positions[existing.frequency - 1] = position;
+                }
             }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
 
-        return keywordsMap;
+        documentsScanned.increment();
+        scanLatency.record(System.nanoTime() - start);
+        return scanned;
+    }
+
+    /**
+     * Merges a scanned document into the index with mergeKeywords, and records the positions of
+     * its keywords if they were scanned.
+     */
+    private void mergeDocument(ScannedDocument scanned) {
+        mergeKeywords(scanned.keywords);
+        if (scanned.positions == null || positionIndex == null) return;
+
+        int document = documents.idOf(scanned.docFile);
+        for (Map.Entry<String, int[]> entry : scanned.positions.entrySet()) {
+            int count = scanned.keywords.get(entry.getKey()).frequency;
+            positionIndex.add(entry.getKey(), document, entry.getValue(), count);
+        }
     }
 
     /**
      * Merges the keywords for a single document into the master keywordsIndex
      * hash table. For each keyword, its Occurrence in the current document
-     * must be inserted in the correct place (according to descending order of
-     * frequency) in the same keyword's Occurrence list in the master hash table.
-     * This is done by calling the insertLastOccurrence method.
+     * is turned into a (document id, frequency) pair, which is inserted in the correct
+     * place (according to descending order of frequency) in the same keyword's postings
+     * in the master hash table. The place is found with the same binary search as
+     * the insertLastOccurrence method. If the document is already indexed, its earlier
+     * occurrences (and positions) are removed first, so the latest merge replaces them.
      *
      * @param kws Keywords hash table for a document
      */
     public void mergeKeywords(HashMap<String, Occurrence> kws) {
+        checkWritable();
+        if (!kws.isEmpty()) removeDocument(kws.values().iterator().next().document);
+        long start = System.nanoTime();
+        long probes = 0;
 
         for (String keyword : kws.keySet()) {
             Occurrence occToInsert = kws.get(keyword);
-            ArrayList<Occurrence> occListInMaster = keywordsIndex
-                    .computeIfAbsent(keyword, k -> new ArrayList<>());
+            int document = documents.add(occToInsert.document);
 
-            occListInMaster.add(occToInsert);
-            insertLastOccurrence(occListInMaster);
+            Postings postings = keywordsIndex.get(keyword);
+            if (postings == null) {
+                postings = new Postings();
+                keywordsIndex.put(keyword, postings);
+                termDictionary = null;
+                spellingIndex = null;
+            }
+            probes += postings.insert(document, occToInsert.frequency);
+            documents.addKeyword(document, keyword, occToInsert.frequency);
+            if (queryCache != null) queryCache.invalidate(keyword);
         }
+        norms = null;
+        if (queryCache != null && !kws.isEmpty()) queryCache.invalidateCollectionWide();
+
+        documentsMerged.increment();
+        postingsInserts.add(kws.size());
+        postingsInsertProbes.add(probes);
+        mergeLatency.record(System.nanoTime() - start);
     }
 
     /**
@@ -91,26 +351,59 @@ public class LittleSearchEngine {
      * a noise word. All words are treated in a case-INsensitive manner.
      * <p>
      * Punctuation characters are the following: '.', ',', '?', ':', ';' and '!'
+     * <p>
+     * The test is applied by the analyzer of this engine, the same one that finds the keywords of
+     * documents; with another analyzer than the default (see setAnalyzer), the keyword is what
+     * that analyzer makes of the word, for instance its stem.
      *
      * @param word Candidate word
      * @return Keyword (word without trailing punctuation, LOWER CASE)
      */
     public String getKeyword(String word) {
         if (isEmpty(word)) return null;
-        word = word.toLowerCase();
 
-        while (!Character.isAlphabetic(word.charAt(word.length() - 1))) {
-            word = word.substring(0, word.length() - 1);
-            if (isEmpty(word)) return null;
-        }
+        char[] characters = word.toCharArray();
+        int length = analyzer.analyze(characters, characters.length, noiseWordSet());
+        return length < 0 ? null : new String(characters, 0, length);
+    }
 
-        for (char character : word.toCharArray()) {
-            if (!Character.isAlphabetic(character)) return null;
-        }
+    /**
+     * Turns a word of a query into the keyword it is indexed under, as getKeyword does. A word
+     * that is not a keyword becomes the empty string, which is never a keyword, so that it
+     * matches no document.
+     */
+    private String queryKeyword(String word) {
+        String keyword = getKeyword(word);
+        return keyword == null ? "" : keyword;
+    }
 
-        if (noiseWords.contains(word)) return null;
+    /**
+     * Turns the words of a query into keywords, as queryKeyword does.
+     *
+     * @param words Words of a query
+     * @return Keywords, in the same order
+     */
+    List<String> queryKeywords(List<String> words) {
+        ArrayList<String> keywords = new ArrayList<>(words.size());
+        for (String word : words) {
+            keywords.add(queryKeyword(word));
+        }
+        return keywords;
+    }
 
-        return word;
+    /**
+     * Returns the noise words as a NoiseWordSet, building it if noise words were added since it
+     * was last built. Scanning threads may call this at the same time while noise words are not
+     * being loaded; at worst each builds its own copy, and a NoiseWordSet is safe to share since
+     * all of its fields are final.
+     */
+    private NoiseWordSet noiseWordSet() {
+        NoiseWordSet set = noiseWordSet;
+        if (set == null) {
+            set = new NoiseWordSet(noiseWords);
+            noiseWordSet = set;
+        }
+        return set;
     }
 
     private boolean isEmpty(String text) {
@@ -129,6 +422,7 @@ public class LittleSearchEngine {
      * your code - it is not used elsewhere in the program.
      */
     public ArrayList<Integer> insertLastOccurrence(ArrayList<Occurrence> occs) {
+        long start = System.nanoTime();
 
         int size = occs.size();
         if (size <= 1) return null;
@@ -159,13 +453,15 @@ public class LittleSearchEngine {
         int offset = occToInsert.frequency > occToCheck.frequency ? 0 : 1;
         occs.add(lowIndex + offset, occToInsert);
 
+        metrics.increment("insertLastOccurrence.probes", indices.size());
+        metrics.recordSince("insertLastOccurrence", start);
         return indices;
     }
 
     /**
      * This method indexes all keywords found in all the input documents. When this
      * method is done, the keywordsIndex hash table will be filled with all keywords,
-     * each of which is associated with an array list of Occurrence objects, arranged
+     * each of which is associated with the postings of its occurrences, arranged
      * in decreasing frequencies of occurrence.
      *
      * @param docsFile       Name of file that has a list of all the document file names, one name per line
@@ -175,22 +471,320 @@ public class LittleSearchEngine {
     public void makeIndex(String docsFile, String noiseWordsFile)
             throws FileNotFoundException {
         // load noise words to hash table
-        Scanner sc = new Scanner(new File(noiseWordsFile));
-        while (sc.hasNext()) {
-            String word = sc.next();
-            noiseWords.add(word);
-        }
+        loadNoiseWords(noiseWordsFile);
 
         // index all keywords
-        sc = new Scanner(new File(docsFile));
+        Scanner sc = new Scanner(new File(docsFile));
         while (sc.hasNext()) {
             String docFile = sc.next();
-            HashMap<String, Occurrence> kws = loadKeywordsFromDocument(docFile);
-            mergeKeywords(kws);
+            mergeDocument(scanDocument(docFile, positionIndex != null));
         }
         sc.close();
     }
 
+    /**
+     * Same as makeIndex(docsFile, noiseWordsFile), but documents are scanned by a pool of
+     * worker threads. Each worker builds the keywords hash table of one document as
+     * loadKeywordsFromDocument does; the tables are then merged into keywordsIndex by the calling
+     * thread in the order the documents are listed in docsFile, so the resulting index
+     * (including the order of equal-frequency occurrences) is the same as a serial build.
+     * At most a few documents per worker are scanned ahead of the merge, which bounds the
+     * number of per-document tables held in memory.
+     *
+     * @param docsFile       Name of file that has a list of all the document file names, one name per line
+     * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+     * @param threads        Number of worker threads, typically the number of available processors
+     * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+     */
+    public void makeIndex(String docsFile, String noiseWordsFile, int threads)
+            throws FileNotFoundException {
+        if (threads < 1) throw new IllegalArgumentException("threads must be at least 1: " + threads);
+
+        loadNoiseWords(noiseWordsFile);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<ScannedDocument>> pending = new ArrayDeque<>();
+        boolean withPositions = positionIndex != null;
+        int window = threads * 4;
+
+        try (Scanner sc = new Scanner(new File(docsFile))) {
+            while (sc.hasNext()) {
+                String docFile = sc.next();
+                pending.add(pool.submit(() -> scanDocument(docFile, withPositions)));
+                if (pending.size() >= window) {
+                    mergeDocument(awaitScan(pending.remove()));
+                }
+            }
+            while (!pending.isEmpty()) {
+                mergeDocument(awaitScan(pending.remove()));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private ScannedDocument awaitScan(Future<ScannedDocument> future)
+            throws FileNotFoundException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while indexing", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof FileNotFoundException) throw (FileNotFoundException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Loads noise words into the noiseWords hash table, in addition to any already loaded.
+     * makeIndex does this itself; it is only needed before adding documents one at a time
+     * with addDocument.
+     *
+     * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+     * @throws FileNotFoundException If the noise words file is not found on disk
+     */
+    public void loadNoiseWords(String noiseWordsFile) throws FileNotFoundException {
+        checkNotFrozen();
+        try (Scanner sc = new Scanner(new File(noiseWordsFile))) {
+            while (sc.hasNext()) {
+                addNoiseWord(sc.next());
+            }
+        }
+    }
+
+    /**
+     * Adds a noise word, dropping the NoiseWordSet built from the previous ones.
+     *
+     * @param word Noise word
+     */
+    void addNoiseWord(String word) {
+        checkNotFrozen();
+        if (noiseWords.add(word)) noiseWordSet = null;
+    }
+
+    /**
+     * Adds a single document to the index. Its keywords are loaded with loadKeywordsFromDocument
+     * and merged into keywordsIndex with mergeKeywords, so each occurrence goes into place with
+     * the same binary search insertion as a full build. If the document is already indexed, it
+     * is updated instead.
+     *
+     * @param docFile Name of the document file to be added
+     * @throws FileNotFoundException If the document file is not found on disk
+     */
+    public void addDocument(String docFile) throws FileNotFoundException {
+        if (documents.idOf(docFile) >= 0) {
+            updateDocument(docFile);
+            return;
+        }
+        mergeDocument(scanDocument(docFile, positionIndex != null));
+    }
+
+    /**
+     * Adds a scanned document to the index, or replaces it if it is already indexed, as
+     * addDocument does with a document read from its file.
+     */
+    void addScanned(ScannedDocument scanned) {
+        removeDocument(scanned.docFile);
+        mergeDocument(scanned);
+    }
+
+    /**
+     * Tells whether positions are indexed, so documents must be scanned with positions.
+     */
+    boolean positionsIndexed() {
+        return positionIndex != null;
+    }
+
+    /**
+     * Removes a document from the index. Its pair is taken out of the postings of each of its
+     * keywords, which stay in descending order of frequencies. Keywords that no longer occur in
+     * any document are removed from keywordsIndex.
+     *
+     * @param docFile Name of the document file to be removed
+     * @return True if the document was in the index, false otherwise
+     */
+    public boolean removeDocument(String docFile) {
+        checkWritable();
+        int document = documents.idOf(docFile);
+        if (document < 0) return false;
+
+        for (int i = 0; i < documents.keywordCount(document); i++) {
+            String keyword = documents.keyword(document, i);
+            Postings postings = keywordsIndex.get(keyword);
+            if (postings == null) continue;
+
+            postings.remove(document, documents.frequency(document, i));
+            if (queryCache != null) queryCache.invalidate(keyword);
+            if (positionIndex != null) positionIndex.remove(keyword, document);
+            if (postings.size() == 0) {
+                keywordsIndex.remove(keyword);
+                termDictionary = null;
+                spellingIndex = null;
+            }
+        }
+        documents.remove(document);
+        norms = null;
+        documentsRemoved.increment();
+        if (queryCache != null) queryCache.invalidateCollectionWide();
+        return true;
+    }
+
+    /**
+     * Re-scans a document that has changed on disk, replacing its occurrences in the index.
+     * If the document is not indexed yet, it is simply added.
+     *
+     * @param docFile Name of the document file to be updated
+     * @throws FileNotFoundException If the document file is not found on disk
+     */
+    public void updateDocument(String docFile) throws FileNotFoundException {
+        ScannedDocument scanned = scanDocument(docFile, positionIndex != null);
+        removeDocument(docFile);
+        mergeDocument(scanned);
+    }
+
+    /**
+     * Writes the index to a file, from which it can later be opened with openIndex instead of
+     * being rebuilt with makeIndex. Keywords are written in sorted order, and the occurrences of
+     * each keyword are compressed with variable length integer codes.
+     *
+     * @param indexFile Name of the index file to be written
+     * @throws IOException If the index file cannot be written
+     */
+    public void writeIndex(String indexFile) throws IOException {
+        checkInMemory();
+        IndexSegment.write(keywordsIndex, documents, new File(indexFile));
+    }
+
+    /**
+     * Opens an index file written by writeIndex, for searching. The file is memory mapped, and
+     * the occurrences of a keyword are only read from it when the keyword is searched for, so
+     * opening takes the same time regardless of the size of the index. An opened index is read
+     * only: adding, removing or merging documents throws an IllegalStateException.
+     *
+     * @param indexFile Name of the index file to be opened
+     * @throws IOException If the index file cannot be read, or is not an index file
+     */
+    public void openIndex(String indexFile) throws IOException {
+        checkNotFrozen();
+        openedIndex = IndexSegment.open(new File(indexFile));
+        keywordsIndex.clear();
+        documents.clear();
+        norms = null;
+        if (queryCache != null) queryCache.clear();
+        positionIndex = null;
+        termDictionary = null;
+        spellingIndex = null;
+    }
+
+    private void checkWritable() {
+        checkInMemory();
+        checkNotFrozen();
+    }
+
+    private void checkInMemory() {
+        if (openedIndex != null) {
+            throw new IllegalStateException("Index opened from a file is read only");
+        }
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("Index is frozen and read only");
+        }
+    }
+
+    private Postings postingsOf(String keyword) {
+        if (openedIndex != null) return openedIndex.postings(keyword);
+        return keywordsIndex.get(keyword);
+    }
+
+    private String documentName(int document) {
+        if (openedIndex != null) return openedIndex.document(document);
+        return documents.name(document);
+    }
+
+    /**
+     * Sets the ranking used by topKSearch. The default, Scorer.FREQUENCY, ranks documents on the
+     * sum of keyword frequencies; Scorer.tfIdf() and Scorer.bm25() also take into account how
+     * rare each keyword is and how long each document is.
+     *
+     * @param scorer Ranking to use
+     */
+    public void setScorer(Scorer scorer) {
+        checkNotFrozen();
+        this.scorer = scorer;
+        norms = null;
+        if (queryCache != null) queryCache.clear();
+    }
+
+    /**
+     * Turns on caching of search results (top5search and topKSearch). When the cache is full,
+     * the least recently used results are evicted. Adding or removing a document only evicts the
+     * results for the keywords of that document, except with a ranking other than the default
+     * Scorer.FREQUENCY, where every topKSearch result depends on the whole collection.
+     *
+     * @param maxEntries Maximum number of cached results
+     * @param maxBytes   Maximum (estimated) memory used by cached results, in bytes
+     */
+    public void enableQueryCache(int maxEntries, long maxBytes) {
+        checkNotFrozen();
+        queryCache = new QueryCache(maxEntries, maxBytes);
+    }
+
+    /**
+     * Turns off caching of search results, and drops all cached results.
+     */
+    public void disableQueryCache() {
+        queryCache = null;
+    }
+
+    /**
+     * Computes the normalization factor of every document, once per change of the index,
+     * so that queries only have to look them up.
+     */
+    private float[] norms() {
+        if (norms != null) return norms;
+
+        int count = openedIndex != null ? openedIndex.documentCount() : documents.capacity();
+        int size = openedIndex != null ? count : documents.size();
+        long totalLength = openedIndex != null ? openedIndex.totalLength() : documents.totalLength();
+        float averageLength = size == 0 ? 0 : (float) totalLength / size;
+
+        float[] documentNorms = new float[count];
+        maxNorm = 0;
+        for (int id = 0; id < count; id++) {
+            if (openedIndex == null && documents.name(id) == null) continue;
+
+            int length = openedIndex != null ? openedIndex.documentLength(id) : documents.length(id);
+            documentNorms[id] = scorer.norm(length, averageLength);
+            maxNorm = Math.max(maxNorm, documentNorms[id]);
+        }
+        norms = documentNorms;
+        return norms;
+    }
+
+    /**
+     * Returns the number of documents in the index.
+     *
+     * @return Number of documents
+     */
+    public int documentCount() {
+        return openedIndex != null ? openedIndex.documentCount() : documents.size();
+    }
+
+    /**
+     * Returns the counters and latency histograms of this engine, which can be read with
+     * snapshot() or registered with JMX.
+     *
+     * @return Metrics
+     */
+    public SearchMetrics metrics() {
+        return metrics;
+    }
+
     /**
      * Search result for "kw1 or kw2". A document is in the result set if kw1 or kw2 occurs in that
      * document. Result set is arranged in descending order of document frequencies. (Note that a
@@ -198,6 +792,7 @@ public class LittleSearchEngine {
      * in favor of the first keyword. (That is, if kw1 is in doc1 with frequency f1, and kw2 is in doc2
      * also with the same frequency f1, then doc1 will take precedence over doc2 in the result.
      * The result set is limited to 5 entries. If there are no matches at all, result is null.
+     * Both keywords are analyzed as in topKSearch.
      *
      * @param kw1 First keyword
      * @param kw1 Second keyword
@@ -205,98 +800,709 @@ public class LittleSearchEngine {
      * frequencies. The result size is limited to 5 documents. If there are no matches, returns null.
      */
     public ArrayList<String> top5search(String kw1, String kw2) {
+        long start = System.nanoTime();
+        try {
+            return cachedTop5search(queryKeyword(kw1), queryKeyword(kw2));
+        } finally {
+            top5Queries.recordSince(start);
+        }
+    }
+
+    private ArrayList<String> cachedTop5search(String kw1, String kw2) {
+        if (queryCache == null) return computeTop5search(kw1, kw2);
 
-        Map<String, Integer> doc2FreqMap = new TreeMap<>();
+        String key = "top5\u0000" + kw1 + "\u0000" + kw2;
+        ArrayList<String> resultList = queryCache.get(key);
+        (resultList != null ? cacheHits : cacheMisses).increment();
+        if (resultList == null) {
+            resultList = computeTop5search(kw1, kw2);
+            if (resultList == null) resultList = new ArrayList<>();
+            queryCache.put(key, new String[]{kw1, kw2}, false, resultList);
+        }
+        return resultList.isEmpty() ? null : new ArrayList<>(resultList);
+    }
 
-        for (String keyWord : new String[]{kw1, kw2}) {
+    private ArrayList<String> computeTop5search(String kw1, String kw2) {
 
-            ArrayList<Occurrence> occurrences = keywordsIndex.get(keyWord);
-            for (Occurrence occurrence : getTopFiveOccs(occurrences)) {
+        Postings postings1 = postingsOf(kw1);
+        Postings postings2 = postingsOf(kw2);
 
-                String docName = occurrence.document;
+        HashMap<Integer, Integer> doc2FreqMap = new HashMap<>();
+        addTopFive(doc2FreqMap, postings1);
+        addTopFive(doc2FreqMap, postings2);
 
-                if (doc2FreqMap.containsKey(docName)) {
-                    int existingFreq = doc2FreqMap.get(docName);
-                    if (existingFreq < occurrence.frequency) {
-                        doc2FreqMap.put(docName, occurrence.frequency);
-                    }
+        if (doc2FreqMap.size() == 0) return null;
 
-                } else {
-                    doc2FreqMap.put(docName, occurrence.frequency);
-                }
+        // frequencies of kw1 for breaking ties, looked up once per document instead of once
+        // per comparison
+        HashMap<Integer, Integer> kw1FreqMap = findFrequenciesForDocs(postings1, doc2FreqMap.keySet());
+
+        Comparator<Integer> resultOrder = (doc1, doc2) -> {
+            int value1 = doc2FreqMap.get(doc1);
+            int value2 = doc2FreqMap.get(doc2);
+            if (value1 != value2) return value2 - value1;
 
+            Integer freqOfKw1InDoc1 = kw1FreqMap.get(doc1);
+            Integer freqOfKw1InDoc2 = kw1FreqMap.get(doc2);
+            if (freqOfKw1InDoc1 == null || freqOfKw1InDoc2 == null) {
+                if (freqOfKw1InDoc1 == null && freqOfKw1InDoc2 != null) return 1;
+                if (freqOfKw1InDoc1 != null) return -1;
+            } else if (!freqOfKw1InDoc1.equals(freqOfKw1InDoc2)) {
+                return freqOfKw1InDoc2 - freqOfKw1InDoc1;
             }
+            return documentName(doc1).compareTo(documentName(doc2));
+        };
 
+        // keep only the best 5 documents, with the worst of them at the head of the heap
+        PriorityQueue<Integer> topDocs = new PriorityQueue<>(resultOrder.reversed());
+        for (int document : doc2FreqMap.keySet()) {
+            topDocs.add(document);
+            if (topDocs.size() > 5) topDocs.remove();
         }
 
-        if (doc2FreqMap.size() == 0) return null;
+        ArrayList<String> resultList = new ArrayList<>();
+        while (!topDocs.isEmpty()) {
+            resultList.add(documentName(topDocs.remove()));
+        }
+        Collections.reverse(resultList);
 
-        Map<String, Integer> sortedMap = sortMapByValue(doc2FreqMap, kw1, kw2);
-        List<Map.Entry<String, Integer>> sortedEntries = new ArrayList<>(sortedMap.entrySet());
+        return resultList;
+    }
 
-        ArrayList<String> resultList = new ArrayList<>();
-        for (int i = 0; i < sortedEntries.size(); i++) {
+    private void addTopFive(HashMap<Integer, Integer> doc2FreqMap, Postings postings) {
+        if (postings == null) return;
+
+        for (int i = 0; i < postings.size(); i++) {
             if (i > 4) break;
-            resultList.add(sortedEntries.get(i).getKey());
+            doc2FreqMap.merge(postings.document(i), postings.frequency(i), Math::max);
         }
+    }
+
+    /**
+     * Finds the frequencies of a keyword in a few documents, in a single pass over its postings
+     * that stops as soon as all of the documents have been found.
+     */
+    private HashMap<Integer, Integer> findFrequenciesForDocs(Postings postings, Set<Integer> docs) {
+        HashMap<Integer, Integer> freqMap = new HashMap<>();
+        if (postings == null) return freqMap;
 
+        for (int i = 0; i < postings.size() && freqMap.size() < docs.size(); i++) {
+            if (docs.contains(postings.document(i))) {
+                freqMap.put(postings.document(i), postings.frequency(i));
+            }
+        }
+        return freqMap;
+    }
+
+    /**
+     * Search result for "kw1 or kw2 or ..." over any number of keywords. Documents are ranked on the
+     * total score of the keywords in them, in descending order. By default the score of a keyword
+     * is its frequency; see setScorer. The postings of the keywords are
+     * read in descending order of frequencies, and reading stops as soon as no document that has
+     * not been ranked yet could make the top k (see TopKSearch), so popular keywords do not cost a
+     * full scan of their postings. The result set is limited to k entries. If there are no matches
+     * at all, result is null.
+     * <p>
+     * Keywords go through the analyzer of this engine, as in getKeyword, before they are looked
+     * up, so they are found however they are cased or punctuated, and with Analyzer.stemming()
+     * "running" finds the documents indexed under "run". A word that the analyzer drops, such as
+     * a noise word, matches no document.
+     *
+     * @param keywords Keywords to search for
+     * @param k        Maximum number of documents in the result
+     * @return List of documents in which any of the keywords occurs, arranged in descending order
+     * of total scores. If there are no matches, returns null.
+     */
+    public ArrayList<String> topKSearch(List<String> keywords, int k) {
+        return topKSearch(keywords, k, false);
+    }
+
+    /**
+     * Search result for "kw1 or kw2 or ..." (matchAll false) or "kw1 and kw2 and ..." (matchAll true)
+     * over any number of keywords. With matchAll, a document is in the result set only if all the
+     * keywords occur in it. Otherwise this is the same as topKSearch(keywords, k).
+     *
+     * If more than 64 distinct keywords are searched for without matchAll, the keywords that occur
+     * in the fewest documents are searched for together, as one keyword that occurs in a document
+     * as many times as they do in total, so no document in which any keyword occurs is missed.
+     *
+     * @param keywords Keywords to search for, at most 64 distinct ones if matchAll is true
+     * @param k        Maximum number of documents in the result
+     * @param matchAll True if all keywords must occur in a document, false if any one will do
+     * @return List of matching documents, arranged in descending order of total scores.
+     * If there are no matches, returns null.
+     */
+    public ArrayList<String> topKSearch(List<String> keywords, int k, boolean matchAll) {
+        long start = System.nanoTime();
+        try {
+            return cachedTopKSearch(queryKeywords(keywords), k, matchAll);
+        } finally {
+            topKQueries.recordSince(start);
+        }
+    }
+
+    private ArrayList<String> cachedTopKSearch(List<String> keywords, int k, boolean matchAll) {
+        if (k < 1) throw new IllegalArgumentException("k must be at least 1: " + k);
+        if (queryCache == null) return computeTopKSearch(keywords, k, matchAll);
+
+        // the ranking does not depend on the order of keywords, nor on repeats
+        String[] distinct = new TreeSet<>(keywords).toArray(new String[0]);
+        String key = (matchAll ? "and\u0000" : "or\u0000") + k + "\u0000" + String.join("\u0000", distinct);
+        ArrayList<String> resultList = queryCache.get(key);
+        (resultList != null ? cacheHits : cacheMisses).increment();
+        if (resultList == null) {
+            resultList = computeTopKSearch(keywords, k, matchAll);
+            if (resultList == null) resultList = new ArrayList<>();
+            queryCache.put(key, distinct, !(scorer instanceof Scorer.Frequency), resultList);
+        }
+        return resultList.isEmpty() ? null : new ArrayList<>(resultList);
+    }
+
+    private ArrayList<String> computeTopKSearch(List<String> keywords, int k, boolean matchAll) {
+        ArrayList<ScoredDocument> scored = computeScoredSearch(keywords, k, matchAll);
+        if (scored == null) return null;
+
+        ArrayList<String> resultList = new ArrayList<>();
+        for (ScoredDocument document : scored) {
+            resultList.add(document.document);
+        }
         return resultList;
     }
 
-    private ArrayList<Occurrence> getTopFiveOccs(ArrayList<Occurrence> occurrences) {
+    /**
+     * Same as topKSearch(keywords, k, matchAll), but returns the total score of each document
+     * along with its name, for instance so that results of several engines can be merged.
+     * Results are not cached.
+     *
+     * @param keywords Keywords to search for, at most 64 distinct ones if matchAll is true
+     * @param k        Maximum number of documents in the result
+     * @param matchAll True if all keywords must occur in a document, false if any one will do
+     * @return List of matching documents with their scores, arranged in descending order of
+     * scores. If there are no matches, returns null.
+     */
+    public ArrayList<ScoredDocument> scoredSearch(List<String> keywords, int k, boolean matchAll) {
+        long start = System.nanoTime();
+        try {
+            return computeScoredSearch(queryKeywords(keywords), k, matchAll);
+        } finally {
+            scoredQueries.recordSince(start);
+        }
+    }
+
+    private ArrayList<ScoredDocument> computeScoredSearch(List<String> keywords, int k, boolean matchAll) {
+        if (k < 1) throw new IllegalArgumentException("k must be at least 1: " + k);
 
-        ArrayList<Occurrence> topList = new ArrayList<>();
-        if (occurrences == null) return topList;
+        ArrayList<Postings> postings = new ArrayList<>();
+        for (String keyword : new LinkedHashSet<>(keywords)) {
+            Postings keywordPostings = postingsOf(keyword);
+            if (keywordPostings != null) {
+                postings.add(keywordPostings);
+            } else if (matchAll) {
+                return null;
+            }
+        }
+        if (postings.isEmpty()) return null;
+        if (!matchAll && postings.size() > TopKSearch.MAX_KEYWORDS) {
+            postings.sort((p1, p2) -> p2.size() - p1.size());
+            List<Postings> rarest = postings.subList(TopKSearch.MAX_KEYWORDS - 1, postings.size());
+            Postings union = Postings.union(rarest);
+            rarest.clear();
+            postings.add(union);
+        }
 
-        for (int i = 0; i < occurrences.size(); i++) {
-            if (i > 4) break;
-            topList.add(occurrences.get(i));
+        float[] idfs = new float[postings.size()];
+        for (int j = 0; j < idfs.length; j++) {
+            idfs[j] = scorer.idf(postings.get(j).size(), documentCount());
         }
+        float[] documentNorms = norms();
+
+        float[] scores = new float[Math.min(k, documentCount())];
+        int[] topDocuments = TopKSearch.search(postings.toArray(new Postings[0]), idfs,
+                documentNorms, maxNorm, scorer, k, matchAll, scores);
+        if (topDocuments.length == 0) return null;
 
-        return topList;
+        ArrayList<ScoredDocument> resultList = new ArrayList<>();
+        for (int i = 0; i < topDocuments.length; i++) {
+            resultList.add(new ScoredDocument(documentName(topDocuments[i]), scores[i]));
+        }
+        return resultList;
     }
 
-    private Map<String, Integer> sortMapByValue(Map<String, Integer> map, String kw1, String kw2) {
+    /**
+     * Sets the analyzer that turns words of documents and of queries into keywords, for instance
+     * Analyzer.stemming() to index and search words by their stems. This must be set before any
+     * document is indexed. An index opened with openIndex must be searched with the analyzer it
+     * was built with.
+     *
+     * @param analyzer Analyzer
+     * @throws IllegalStateException If documents have already been indexed
+     */
+    public void setAnalyzer(Analyzer analyzer) {
+        checkNotFrozen();
+        if (documents.size() > 0) {
+            throw new IllegalStateException("The analyzer must be set before indexing");
+        }
+        this.analyzer = analyzer;
+        if (queryCache != null) queryCache.clear();
+    }
 
-        List<Map.Entry<String, Integer>> entries = new ArrayList<>(map.entrySet());
-        entries.sort((o1, o2) -> {
-            int value2 = o2.getValue();
-            int value1 = o1.getValue();
+    /**
+     * Turns indexing of keyword positions on or off. Positions are needed for phraseSearch and
+     * proximitySearch, and take memory in proportion to the total number of keyword occurrences,
+     * so they are off by default. This must be set before any document is indexed. Documents
+     * merged directly with mergeKeywords have no positions.
+     *
+     * @param enabled True to index positions
+     * @throws IllegalStateException If documents have already been indexed
+     */
+    public void setPositionsIndexed(boolean enabled) {
+        checkWritable();
+        if (documents.size() > 0) {
+            throw new IllegalStateException("Positions must be turned on or off before indexing");
+        }
+        positionIndex = enabled ? new PositionIndex() : null;
+    }
 
-            if (value1 != value2) {
-                return value2 - value1;
-            } else {
-                ArrayList<Occurrence> occurrences1 = keywordsIndex.get(kw1);
+    /**
+     * Search result for an exact phrase. A document is in the result set if the keywords of the
+     * phrase occur in it in the same order, at the same distances from each other. Words of the
+     * phrase that are not keywords (noise words, numbers, ...) match any word. Result set is
+     * arranged in descending order of the number of times the phrase occurs in a document.
+     *
+     * @param phrase Phrase, words separated by white space
+     * @param k      Maximum number of documents in the result
+     * @return List of documents that contain the phrase. If there are no matches, returns null.
+     * @throws IllegalStateException If positions are not indexed
+     */
+    public ArrayList<String> phraseSearch(String phrase, int k) {
+        long start = System.nanoTime();
+        try {
+            return computePhraseSearch(phrase, k);
+        } finally {
+            phraseQueries.recordSince(start);
+        }
+    }
 
-                Occurrence occOfKw1InDoc1 = findOccurrenceForDoc(occurrences1, o1.getKey());
-                Occurrence occOfKw1InDoc2 = findOccurrenceForDoc(occurrences1, o2.getKey());
+    private ArrayList<String> computePhraseSearch(String phrase, int k) {
+        if (positionIndex == null) throw new IllegalStateException("Positions are not indexed");
+        if (k < 1) throw new IllegalArgumentException("k must be at least 1: " + k);
 
-                if (occOfKw1InDoc1 == null || occOfKw1InDoc2 == null) {
-                    if (occOfKw1InDoc1 == null && occOfKw1InDoc2 != null) return 1;
-                    if (occOfKw1InDoc1 != null) return -1;
-                    return 0;
-                }
+        ArrayList<String> terms = new ArrayList<>();
+        ArrayList<Integer> offsets = new ArrayList<>();
+        String[] words = phrase.trim().split("\\s+");
+        for (int i = 0; i < words.length; i++) {
+            String keyword = getKeyword(words[i]);
+            if (keyword != null) {
+                terms.add(keyword);
+                offsets.add(i);
+            }
+        }
+
+        Postings rarest = rarestPostings(terms);
+        if (rarest == null) return null;
+
+        ArrayList<int[]> matches = new ArrayList<>();
+        for (int i = 0; i < rarest.size(); i++) {
+            int document = rarest.document(i);
+            if (!containsAll(terms, document)) continue;
+
+            int count = countPhrase(terms, offsets, document);
+            if (count > 0) matches.add(new int[]{document, count});
+        }
+
+        matches.sort((m1, m2) -> m1[1] != m2[1] ? m2[1] - m1[1] : Integer.compare(m1[0], m2[0]));
+        return topDocumentNames(matches, k);
+    }
+
+    /**
+     * Search result for keywords occurring close to each other. A document is in the result set if
+     * all of the keywords occur in it. Result set is arranged in ascending order of the length (in
+     * words) of the shortest stretch of the document that contains all of the keywords. Keywords
+     * are analyzed as in topKSearch.
+     *
+     * @param keywords Keywords to search for
+     * @param k        Maximum number of documents in the result
+     * @return List of documents that contain all keywords. If there are no matches, returns null.
+     * @throws IllegalStateException If positions are not indexed
+     */
+    public ArrayList<String> proximitySearch(List<String> keywords, int k) {
+        long start = System.nanoTime();
+        try {
+            return computeProximitySearch(queryKeywords(keywords), k);
+        } finally {
+            proximityQueries.recordSince(start);
+        }
+    }
+
+    private ArrayList<String> computeProximitySearch(List<String> keywords, int k) {
+        if (positionIndex == null) throw new IllegalStateException("Positions are not indexed");
+        if (k < 1) throw new IllegalArgumentException("k must be at least 1: " + k);
 
-                return occOfKw1InDoc2.frequency - occOfKw1InDoc1.frequency;
+        ArrayList<String> terms = new ArrayList<>(new LinkedHashSet<>(keywords));
+        Postings rarest = rarestPostings(terms);
+        if (rarest == null) return null;
+
+        ArrayList<int[]> matches = new ArrayList<>();
+        for (int i = 0; i < rarest.size(); i++) {
+            int document = rarest.document(i);
+            if (containsAll(terms, document)) {
+                matches.add(new int[]{document, shortestSpan(terms, document)});
             }
-        });
+        }
 
-        Map<String, Integer> sortedMap = new LinkedHashMap<>();
+        matches.sort((m1, m2) -> m1[1] != m2[1] ? m1[1] - m2[1] : Integer.compare(m1[0], m2[0]));
+        return topDocumentNames(matches, k);
+    }
 
-        for (Map.Entry<String, Integer> entry : entries) {
-            sortedMap.put(entry.getKey(), entry.getValue());
+    /**
+     * Returns the postings of the keyword that occurs in the fewest documents, null if there are
+     * no keywords or one of them does not occur at all.
+     */
+    private Postings rarestPostings(List<String> terms) {
+        Postings rarest = null;
+        for (String term : terms) {
+            Postings postings = keywordsIndex.get(term);
+            if (postings == null) return null;
+            if (rarest == null || postings.size() < rarest.size()) rarest = postings;
         }
+        return rarest;
+    }
 
-        return sortedMap;
+    private boolean containsAll(List<String> terms, int document) {
+        for (String term : terms) {
+            if (!positionIndex.contains(term, document)) return false;
+        }
+        return true;
     }
 
-    private Occurrence findOccurrenceForDoc(ArrayList<Occurrence> occurrences, String docName) {
-        for (Occurrence occurrence : occurrences) {
-            if (occurrence.document.equals(docName)) {
-                return occurrence;
+    /**
+     * Counts the positions at which term j occurs offsets[j] words after the start, for all j.
+     */
+    private int countPhrase(List<String> terms, List<Integer> offsets, int document) {
+        int[][] positions = new int[terms.size()][];
+        for (int j = 0; j < positions.length; j++) {
+            positions[j] = positionIndex.positions(terms.get(j), document);
+        }
+
+        int count = 0;
+        for (int first : positions[0]) {
+            int start = first - offsets.get(0);
+            boolean matched = true;
+            for (int j = 1; j < positions.length && matched; j++) {
+                matched = Arrays.binarySearch(positions[j], start + offsets.get(j)) >= 0;
             }
+            if (matched) count++;
         }
-        return null;
+        return count;
     }
 
+    /**
+     * Finds the length of the shortest stretch of words containing every term, by sliding a
+     * window over the positions of all terms in increasing order.
+     */
+    private int shortestSpan(List<String> terms, int document) {
+        int total = 0;
+        int[][] positions = new int[terms.size()][];
+        for (int j = 0; j < positions.length; j++) {
+            positions[j] = positionIndex.positions(terms.get(j), document);
+            total += positions[j].length;
+        }
+
+        // (position, term) pairs in increasing order of positions
+        long[] merged = new long[total];
+        int n = 0;
+        for (int j = 0; j < positions.length; j++) {
+            for (int position : positions[j]) {
+                merged[n++] = ((long) position << 32) | j;
+            }
+        }
+        Arrays.sort(merged);
+
+        int[] inWindow = new int[terms.size()];
+        int covered = 0;
+        int shortest = Integer.MAX_VALUE;
+        int start = 0;
+        for (long end : merged) {
+            if (inWindow[(int) end]++ == 0) covered++;
+            while (covered == terms.size()) {
+                shortest = Math.min(shortest, (int) (end >>> 32) - (int) (merged[start] >>> 32) + 1);
+                if (--inWindow[(int) merged[start]] == 0) covered--;
+                start++;
+            }
+        }
+        return shortest;
+    }
+
+    private ArrayList<String> topDocumentNames(List<int[]> matches, int k) {
+        if (matches.isEmpty()) return null;
+
+        ArrayList<String> resultList = new ArrayList<>();
+        for (int i = 0; i < matches.size() && i < k; i++) {
+            resultList.add(documents.name(matches.get(i)[0]));
+        }
+        return resultList;
+    }
+
+    /**
+     * Returns the keywords that start with a prefix, found in a sorted dictionary of the keywords
+     * instead of by scanning every keyword. The prefix is not analyzed, since a prefix is not a
+     * word (the stem of "runn" is not a prefix of "run"), only lower cased: it is matched against
+     * the keywords as indexed, so with Analyzer.stemming() against stems. The same goes for
+     * keywordsMatching, keywordsInRange and wildcardSearch.
+     *
+     * @param prefix Prefix, case insensitive
+     * @return Keywords in sorted order, empty if there are none
+     */
+    public ArrayList<String> keywordsWithPrefix(String prefix) {
+        return termDictionary().prefix(prefix.toLowerCase());
+    }
+
+    /**
+     * Returns the keywords that match a wildcard pattern, in which '*' matches any sequence of
+     * letters (including none) and '?' matches exactly one letter, for instance "alic*" or "?at".
+     * A pattern without wildcards matches only itself.
+     *
+     * @param pattern Pattern, case insensitive
+     * @return Keywords in sorted order, empty if there are none
+     */
+    public ArrayList<String> keywordsMatching(String pattern) {
+        return termDictionary().wildcard(pattern.toLowerCase());
+    }
+
+    /**
+     * Returns the keywords from one keyword to another in alphabetical order, both included.
+     *
+     * @param from Lowest keyword, case insensitive
+     * @param to   Highest keyword, case insensitive
+     * @return Keywords in sorted order, empty if there are none
+     */
+    public ArrayList<String> keywordsInRange(String from, String to) {
+        return termDictionary().range(from.toLowerCase(), to.toLowerCase());
+    }
+
+    /**
+     * Search result for "p1 or p2 or ...", where each pattern is a keyword or a wildcard pattern
+     * as in keywordsMatching. The patterns are expanded into the keywords they match, and the
+     * keywords are searched for as in topKSearch, however many there are.
+     *
+     * @param patterns Keywords or wildcard patterns
+     * @param k        Maximum number of documents in the result
+     * @return List of documents in which any of the matching keywords occurs, arranged in
+     * descending order of total scores. If there are no matches, returns null.
+     */
+    public ArrayList<String> wildcardSearch(List<String> patterns, int k) {
+        long start = System.nanoTime();
+        try {
+            return computeWildcardSearch(patterns, k);
+        } finally {
+            wildcardQueries.recordSince(start);
+        }
+    }
+
+    private ArrayList<String> computeWildcardSearch(List<String> patterns, int k) {
+        LinkedHashSet<String> expanded = new LinkedHashSet<>();
+        for (String pattern : patterns) {
+            expanded.addAll(keywordsMatching(pattern));
+        }
+
+        ArrayList<String> keywords = new ArrayList<>(expanded);
+        if (keywords.isEmpty()) return null;
+
+        return cachedTopKSearch(keywords, k, false);
+    }
+
+    /**
+     * Suggests corrections for a query word that may be misspelled: the keywords within an edit
+     * distance of 2 of it (letters inserted, deleted or replaced), closest first, and among
+     * keywords at the same distance, those that occur in the most documents first. The word is
+     * first made into a keyword as in getKeyword. Keywords are found in a deletion index of the
+     * term dictionary, built the first time this is called after the keywords change, so a
+     * lookup takes a few dozen binary searches however many keywords there are.
+     *
+     * @param word Query word
+     * @param k    Maximum number of suggestions
+     * @return Suggested keywords, with the word itself first if it is a keyword of the index;
+     * empty if the word is a noise word or nothing is close enough
+     */
+    public ArrayList<String> suggestKeywords(String word, int k) {
+        ArrayList<String> suggestions = new ArrayList<>();
+        String keyword = getKeyword(word);
+        if (keyword == null || k <= 0) return suggestions;
+
+        TermDictionary terms = termDictionary();
+        SpellingIndex spelling = spellingIndex;
+        if (spelling == null) {
+            spelling = new SpellingIndex(terms);
+            spellingIndex = spelling;
+        }
+
+        ArrayList<int[]> matches = spelling.lookup(keyword, SpellingIndex.MAX_DISTANCE);
+        HashMap<Integer, Integer> documentFrequencies = new HashMap<>();
+        for (int[] match : matches) {
+            documentFrequencies.put(match[0], documentFrequency(terms, match[0]));
+        }
+        matches.sort((m1, m2) -> m1[1] != m2[1] ? m1[1] - m2[1]
+                : documentFrequencies.get(m2[0]) - documentFrequencies.get(m1[0]));
+        for (int i = 0; i < Math.min(k, matches.size()); i++) {
+            suggestions.add(terms.term(matches.get(i)[0]));
+        }
+        return suggestions;
+    }
+
+    /**
+     * Returns the best correction of a query word that is not a keyword of the index, as a
+     * "did you mean" prompt, for instance "rabit" to "rabbit". See suggestKeywords.
+     *
+     * @param word Query word
+     * @return Closest keyword, null if the word is a keyword of the index, a noise word, or
+     * too far from every keyword
+     */
+    public String didYouMean(String word) {
+        ArrayList<String> suggestions = suggestKeywords(word, 1);
+        if (suggestions.isEmpty() || suggestions.get(0).equals(getKeyword(word))) return null;
+        return suggestions.get(0);
+    }
+
+    /**
+     * Number of documents in which a keyword of the term dictionary occurs now, read without
+     * decoding postings. The term dictionary of an opened index lists the keywords in the same
+     * sorted order as the index file, so keyword numbers are the same.
+     */
+    private int documentFrequency(TermDictionary terms, int t) {
+        return openedIndex != null ? openedIndex.documentFrequency(t) : keywordsIndex.get(terms.term(t)).size();
+    }
+
+    private TermDictionary termDictionary() {
+        if (termDictionary == null) {
+            if (openedIndex != null) {
+                ArrayList<String> terms = new ArrayList<>(openedIndex.termCount());
+                for (int t = 0; t < openedIndex.termCount(); t++) {
+                    terms.add(openedIndex.term(t));
+                }
+                termDictionary = new TermDictionary(terms);
+            } else {
+                termDictionary = new TermDictionary(keywordsIndex.keySet());
+            }
+        }
+        return termDictionary;
+    }
+
+    /**
+     * Search result for a boolean query, such as "(alice OR rabbit) AND NOT queen". See
+     * BooleanQuery for the syntax. Matching documents are ranked by the sum of the scores of the
+     * query's keywords that are not under a NOT, as in topKSearch; documents with equal scores are
+     * in the order they were indexed.
+     *
+     * @param query Boolean query
+     * @param k     Maximum number of documents in the result
+     * @return List of matching documents, arranged in descending order of scores. If there are
+     * no matches, returns null.
+     * @throws IllegalArgumentException If the query is not well formed
+     */
+    public ArrayList<String> booleanSearch(String query, int k) {
+        long start = System.nanoTime();
+        try {
+            return computeBooleanSearch(query, k);
+        } finally {
+            booleanQueries.recordSince(start);
+        }
+    }
+
+    private ArrayList<String> computeBooleanSearch(String query, int k) {
+        if (k < 1) throw new IllegalArgumentException("k must be at least 1: " + k);
+
+        BooleanQuery parsed = BooleanQuery.parse(query, this);
+        if (!parsed.hasKeywords()) return null;
+
+        // postings are looked up once per keyword, as those of an opened index are decoded
+        // on every lookup
+        HashMap<String, Postings> fetched = new HashMap<>();
+        int[] matches = parsed.evaluate(keyword -> fetched.computeIfAbsent(keyword, this::postingsOf),
+                this::allDocuments);
+        if (matches.length == 0) return null;
+
+        List<String> scoring = parsed.scoringKeywords();
+        ArrayList<Postings> postings = new ArrayList<>();
+        for (String keyword : scoring) {
+            Postings keywordPostings = fetched.computeIfAbsent(keyword, this::postingsOf);
+            if (keywordPostings != null) postings.add(keywordPostings);
+        }
+        float[] idfs = new float[postings.size()];
+        for (int j = 0; j < idfs.length; j++) {
+            idfs[j] = scorer.idf(postings.get(j).size(), documentCount());
+        }
+        float[] documentNorms = norms();
+
+        // bounded min-heap of documents; matches come in ascending order of ids, so a document
+        // that only ties the lowest score in the heap ranks after it and is skipped
+        PriorityQueue<ScoredId> top = new PriorityQueue<>((h1, h2) -> h1.score != h2.score
+                ? Float.compare(h1.score, h2.score)
+                : Integer.compare(h2.document, h1.document));
+        for (int document : matches) {
+            float norm = documentNorms[document];
+            if (top.size() == k) {
+                // the score can be no higher than with the largest frequency of every keyword
+                float bound = 0;
+                for (int j = 0; j < idfs.length; j++) {
+                    bound += scorer.score(postings.get(j).frequency(0), idfs[j], norm);
+                }
+                if (bound <= top.peek().score) continue;
+            }
+
+            float score = 0;
+            for (int j = 0; j < idfs.length; j++) {
+                int frequency = postings.get(j).frequencyOf(document);
+                if (frequency > 0) score += scorer.score(frequency, idfs[j], norm);
+            }
+            if (top.size() < k) {
+                top.add(new ScoredId(document, score));
+            } else if (score > top.peek().score) {
+                top.remove();
+                top.add(new ScoredId(document, score));
+            }
+        }
+
+        ArrayList<ScoredId> ranked = new ArrayList<>(top);
+        ranked.sort((h1, h2) -> h1.score != h2.score
+                ? Float.compare(h2.score, h1.score)
+                : Integer.compare(h1.document, h2.document));
+        ArrayList<String> resultList = new ArrayList<>();
+        for (ScoredId hit : ranked) {
+            resultList.add(documentName(hit.document));
+        }
+        return resultList;
+    }
+
+    /**
+     * A document id with its score, for ranking boolean search results.
+     */
+    private static class ScoredId {
+        final int document;
+        final float score;
+
+        ScoredId(int document, float score) {
+            this.document = document;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Returns the ids of all documents in the index, in ascending order.
+     */
+    private int[] allDocuments() {
+        if (openedIndex != null) {
+            int[] all = new int[openedIndex.documentCount()];
+            for (int id = 0; id < all.length; id++) {
+                all[id] = id;
+            }
+            return all;
+        }
+
+        int[] all = new int[documents.size()];
+        int count = 0;
+        for (int id = 0; id < documents.capacity(); id++) {
+            if (documents.name(id) != null) all[count++] = id;
+        }
+        return all;
+    }
 }
@@ -0,0 +1,67 @@
+package lse;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is a shard backed by a LittleSearchEngine in the same JVM.
+ */
+class LocalShard implements SearchShard {
+
+    private final LittleSearchEngine engine;
+
+    /**
+     * Initializes a shard with an empty engine.
+     */
+    LocalShard() {
+        this(new LittleSearchEngine());
+    }
+
+    /**
+     * Initializes a shard backed by an engine.
+     *
+     * @param engine Engine holding the documents of this shard
+     */
+    LocalShard(LittleSearchEngine engine) {
+        this.engine = engine;
+    }
+
+    public void loadNoiseWords(String noiseWordsFile) throws FileNotFoundException {
+        engine.loadNoiseWords(noiseWordsFile);
+    }
+
+    public void addDocument(String docFile) throws FileNotFoundException {
+        engine.addDocument(docFile);
+    }
+
+    public boolean removeDocument(String docFile) {
+        return engine.removeDocument(docFile);
+    }
+
+    public void setScorer(Scorer scorer) {
+        engine.setScorer(scorer);
+    }
+
+    public ArrayList<ScoredDocument> search(List<String> keywords, int k, boolean matchAll) {
+        // asks for one more document than k, then twice as many, until one scores below the kth
+        // or there are no more
+        for (long n = k + 1L; ; n *= 2) {
+            int count = (int) Math.min(n, Integer.MAX_VALUE);
+            ArrayList<ScoredDocument> results = engine.scoredSearch(keywords, count, matchAll);
+            if (results == null) return new ArrayList<>();
+            if (results.size() <= k) return results;
+
+            float kthScore = results.get(k - 1).score;
+            if (results.size() < n || results.get(results.size() - 1).score != kthScore) {
+                int end = k;
+                while (end < results.size() && results.get(end).score == kthScore) end++;
+                return new ArrayList<>(results.subList(0, end));
+            }
+        }
+    }
+
+    public int documentCount() {
+        return engine.documentCount();
+    }
+}
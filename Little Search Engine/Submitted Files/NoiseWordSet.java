@@ -0,0 +1,203 @@
+package lse;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * This class is an immutable set of words that is queried with a range of a character array, so
+ * a word read into a buffer is looked up without first being made into a String. It is a perfect
+ * hash table built with the "hash and displace" method: words are grouped in buckets by one hash,
+ * and each bucket, largest first, gets a displacement that sends all of its words to empty slots
+ * by a second hash. Every word then has a slot of its own, so a lookup hashes the characters once,
+ * reads one displacement and compares the characters with a single candidate word; there is no
+ * probing, and nothing is allocated.
+ * <p>
+ * It is the context analyzers are run with, so the NOISE_WORDS filter drops the words it holds.
+ */
+class NoiseWordSet implements Analyzer.Context {
+
+    /**
+     * Slots per word. Less room makes displacements harder to find, and building slower.
+     */
+    private static final double SLOTS_PER_WORD = 1.25;
+
+    private final int size;
+
+    /**
+     * Characters of all words, one after another, and the start and end of the word in each slot
+     * (start -1 for an empty slot).
+     */
+    private final char[] chars;
+    private final int[] starts;
+    private final int[] ends;
+
+    /**
+     * Displacement of each bucket.
+     */
+    private final int[] displacements;
+
+    /**
+     * Builds a set.
+     *
+     * @param words Words, without duplicates
+     */
+    NoiseWordSet(Collection<String> words) {
+        size = words.size();
+        String[] wordArray = words.toArray(new String[0]);
+
+        int slotCount = Math.max(1, (int) Math.ceil(size * SLOTS_PER_WORD));
+        int bucketCount = Math.max(1, size / 4);
+        int[] slots;
+        int[] bucketDisplacements;
+        while (true) {
+            slots = new int[slotCount];
+            bucketDisplacements = new int[bucketCount];
+            if (place(wordArray, slots, bucketDisplacements)) break;
+            // very unlikely; more room makes it easier
+            slotCount = slotCount + slotCount / 4 + 1;
+        }
+        displacements = bucketDisplacements;
+
+        int length = 0;
+        for (String word : wordArray) {
+            length += word.length();
+        }
+        chars = new char[length];
+        starts = new int[slotCount];
+        ends = new int[slotCount];
+        Arrays.fill(starts, -1);
+        int position = 0;
+        for (int s = 0; s < slotCount; s++) {
+            if (slots[s] == 0) continue;
+            String word = wordArray[slots[s] - 1];
+            word.getChars(0, word.length(), chars, position);
+            starts[s] = position;
+            position += word.length();
+            ends[s] = position;
+        }
+    }
+
+    /**
+     * Returns the number of words in the set.
+     *
+     * @return Number of words
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Tells whether the set holds a word.
+     *
+     * @param word Word
+     * @return True if the word is in the set
+     */
+    boolean contains(String word) {
+        return contains(word.toCharArray(), 0, word.length());
+    }
+
+    /**
+     * Tells whether the set holds the word in a range of a character array.
+     *
+     * @param word   Characters
+     * @param offset Start of the word
+     * @param length Length of the word
+     * @return True if the word is in the set
+     */
+    boolean contains(char[] word, int offset, int length) {
+        long hash = hash(word, offset, length);
+        int s = slot(hash, displacements[bucket(hash, displacements.length)], starts.length);
+        int start = starts[s];
+        if (start < 0 || ends[s] - start != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (chars[start + i] != word[offset + i]) return false;
+        }
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see lse.Analyzer.Context#isNoiseWord(char[], int)
+     */
+    public boolean isNoiseWord(char[] chars, int length) {
+        return contains(chars, 0, length);
+    }
+
+    /**
+     * Finds a displacement for every bucket, filling slots with word numbers (index + 1).
+     *
+     * @return False if some bucket has no displacement that fits
+     */
+    private static boolean place(String[] words, int[] slots, int[] displacements) {
+        int bucketCount = displacements.length;
+        long[] hashes = new long[words.length];
+        int[] bucketStarts = new int[bucketCount + 1];
+        for (int w = 0; w < words.length; w++) {
+            hashes[w] = hash(words[w].toCharArray(), 0, words[w].length());
+            bucketStarts[bucket(hashes[w], bucketCount) + 1]++;
+        }
+
+        // words grouped by bucket, bucket b from bucketStarts[b] to bucketStarts[b+1]
+        for (int b = 0; b < bucketCount; b++) {
+            bucketStarts[b + 1] += bucketStarts[b];
+        }
+        int[] grouped = new int[words.length];
+        int[] filled = Arrays.copyOf(bucketStarts, bucketCount);
+        for (int w = 0; w < words.length; w++) {
+            grouped[filled[bucket(hashes[w], bucketCount)]++] = w;
+        }
+
+        // buckets from largest to smallest, as (size, bucket) pairs packed in longs
+        long[] order = new long[bucketCount];
+        for (int b = 0; b < bucketCount; b++) {
+            order[b] = ((long) -(bucketStarts[b + 1] - bucketStarts[b]) << 32) | b;
+        }
+        Arrays.sort(order);
+
+        int[] targets = new int[words.length];
+        for (long entry : order) {
+            int bucket = (int) entry;
+            int first = bucketStarts[bucket];
+            int count = bucketStarts[bucket + 1] - first;
+            if (count == 0) continue;
+
+            int displacement = 0;
+            search:
+            for (; displacement < 1 << 20; displacement++) {
+                for (int m = 0; m < count; m++) {
+                    targets[m] = slot(hashes[grouped[first + m]], displacement, slots.length);
+                    if (slots[targets[m]] != 0) continue search;
+                    for (int n = 0; n < m; n++) {
+                        if (targets[n] == targets[m]) continue search;
+                    }
+                }
+                break;
+            }
+            if (displacement == 1 << 20) return false;
+
+            displacements[bucket] = displacement;
+            for (int m = 0; m < count; m++) {
+                slots[targets[m]] = grouped[first + m] + 1;
+            }
+        }
+        return true;
+    }
+
+    private static long hash(char[] word, int offset, int length) {
+        long hash = 0x9E3779B97F4A7C15L;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ word[i]) * 0x100000001B3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        return hash ^ (hash >>> 33);
+    }
+
+    private static int bucket(long hash, int bucketCount) {
+        return (int) ((hash >>> 32) % bucketCount);
+    }
+
+    private static int slot(long hash, int displacement, int slotCount) {
+        long mixed = ((int) hash + displacement * 0x9E3779B9L) * 0xC2B2AE3D27D4EB4FL;
+        return (int) ((mixed >>> 33) % slotCount);
+    }
+}
@@ -0,0 +1,256 @@
+package lse;
+
+/**
+ * This class reduces English words to their stems with the Porter stemming algorithm (M.F.
+ * Porter, "An algorithm for suffix stripping", 1980), so that "connect", "connected",
+ * "connecting" and "connections" all become "connect". The stem is not always a word ("happy"
+ * becomes "happi"), but the same stem is produced at index and query time, which is all a search
+ * needs.
+ * <p>
+ * Words are stemmed in place in a character array. The algorithm is written as functions of the
+ * array and the index of the last character of the word (k), with no state kept between calls,
+ * so a single instance may be used by any number of threads at once, and nothing is allocated.
+ * Words that are not all lower case letters a to z, and words of one or two letters, are left
+ * as they are.
+ */
+class PorterStemmer implements Analyzer.Filter {
+
+    /**
+     * Suffixes of step 2, each followed by its replacement. For a word that ends with several of
+     * them, the first one listed is used.
+     */
+    private static final String[] STEP2 = {
+            "ational", "ate", "tional", "tion", "enci", "ence", "anci", "ance", "izer", "ize",
+            "bli", "ble", "alli", "al", "entli", "ent", "eli", "e", "ousli", "ous",
+            "ization", "ize", "ation", "ate", "ator", "ate", "alism", "al", "iveness", "ive",
+            "fulness", "ful", "ousness", "ous", "aliti", "al", "iviti", "ive", "biliti", "ble",
+            "logi", "log"
+    };
+
+    /**
+     * Suffixes of step 3, each followed by its replacement.
+     */
+    private static final String[] STEP3 = {
+            "icate", "ic", "ative", "", "alize", "al", "iciti", "ic", "ical", "ic", "ful", "", "ness", ""
+    };
+
+    /**
+     * Suffixes removed by step 4. "ion" is only removed after an s or a t.
+     */
+    private static final String[] STEP4 = {
+            "al", "ance", "ence", "er", "ic", "able", "ible", "ant", "ement", "ment", "ent", "ion",
+            "ou", "ism", "ate", "iti", "ous", "ive", "ize"
+    };
+
+    /* (non-Javadoc)
+     * @see lse.Analyzer.Filter#filter(char[], int, lse.Analyzer.Context)
+     */
+    public int filter(char[] chars, int length, Analyzer.Context context) {
+        return stem(chars, length);
+    }
+
+    /**
+     * Stems a word in place.
+     *
+     * @param b      Characters of the word
+     * @param length Length of the word
+     * @return Length of the stem, which takes the place of the word at the start of b
+     */
+    static int stem(char[] b, int length) {
+        if (length <= 2) return length;
+        for (int i = 0; i < length; i++) {
+            if (b[i] < 'a' || b[i] > 'z') return length;
+        }
+
+        int k = length - 1;
+        k = step1ab(b, k);
+        k = step1c(b, k);
+        k = replaceSuffix(b, k, STEP2);
+        k = replaceSuffix(b, k, STEP3);
+        k = step4(b, k);
+        k = step5(b, k);
+        return k + 1;
+    }
+
+    /**
+     * Removes plurals, -ed and -ing: caresses to caress, ponies to poni, cats to cat, agreed to
+     * agree, plastered to plaster, motoring to motor, hopping to hop, filing to file.
+     */
+    private static int step1ab(char[] b, int k) {
+        if (b[k] == 's') {
+            if (ends(b, k, "sses")) {
+                k -= 2;
+            } else if (ends(b, k, "ies")) {
+                k = setTo(b, k - 3, "i");
+            } else if (b[k - 1] != 's') {
+                k--;
+            }
+        }
+
+        if (ends(b, k, "eed")) {
+            if (measure(b, k - 3) > 0) k--;
+            return k;
+        }
+
+        int j;
+        if (ends(b, k, "ed")) {
+            j = k - 2;
+        } else if (ends(b, k, "ing")) {
+            j = k - 3;
+        } else {
+            return k;
+        }
+        if (!vowelInStem(b, j)) return k;
+
+        k = j;
+        if (ends(b, k, "at")) {
+            k = setTo(b, k - 2, "ate");
+        } else if (ends(b, k, "bl")) {
+            k = setTo(b, k - 2, "ble");
+        } else if (ends(b, k, "iz")) {
+            k = setTo(b, k - 2, "ize");
+        } else if (doubleConsonant(b, k)) {
+            char c = b[k];
+            if (c != 'l' && c != 's' && c != 'z') k--;
+        } else if (measure(b, k) == 1 && cvc(b, k)) {
+            k = setTo(b, k, "e");
+        }
+        return k;
+    }
+
+    /**
+     * Turns a final y into i when there is another vowel in the stem: happy to happi.
+     */
+    private static int step1c(char[] b, int k) {
+        if (ends(b, k, "y") && vowelInStem(b, k - 1)) b[k] = 'i';
+        return k;
+    }
+
+    /**
+     * Replaces the first suffix of a table that the word ends with, if the rest of the word has a
+     * measure above 0 (steps 2 and 3).
+     */
+    private static int replaceSuffix(char[] b, int k, String[] table) {
+        for (int s = 0; s < table.length; s += 2) {
+            if (ends(b, k, table[s])) {
+                int j = k - table[s].length();
+                return measure(b, j) > 0 ? setTo(b, j, table[s + 1]) : k;
+            }
+        }
+        return k;
+    }
+
+    /**
+     * Removes a suffix if the rest of the word has a measure above 1: revival to reviv,
+     * adoption to adopt.
+     */
+    private static int step4(char[] b, int k) {
+        for (String suffix : STEP4) {
+            if (!ends(b, k, suffix)) continue;
+
+            int j = k - suffix.length();
+            if (suffix.equals("ion") && (j < 0 || (b[j] != 's' && b[j] != 't'))) continue;
+            return measure(b, j) > 1 ? j : k;
+        }
+        return k;
+    }
+
+    /**
+     * Removes a final e, and a double l, from long enough words: probate to probat, controll to
+     * control.
+     */
+    private static int step5(char[] b, int k) {
+        int j = k;
+        if (b[k] == 'e') {
+            int m = measure(b, j);
+            if (m > 1 || m == 1 && !cvc(b, k - 1)) k--;
+        }
+        if (b[k] == 'l' && doubleConsonant(b, k) && measure(b, j) > 1) k--;
+        return k;
+    }
+
+    /**
+     * Tells whether b[i] is a consonant: a letter other than a, e, i, o and u, and other than a
+     * y that follows a consonant.
+     */
+    private static boolean consonant(char[] b, int i) {
+        switch (b[i]) {
+            case 'a':
+            case 'e':
+            case 'i':
+            case 'o':
+            case 'u':
+                return false;
+            case 'y':
+                return i == 0 || !consonant(b, i - 1);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Returns the measure of b[0..j]: the number of vowel-consonant sequences in it, m in
+     * [C](VC)^m[V].
+     */
+    private static int measure(char[] b, int j) {
+        int n = 0;
+        int i = 0;
+        while (i <= j && consonant(b, i)) i++;
+        while (i <= j) {
+            while (i <= j && !consonant(b, i)) i++;
+            if (i > j) return n;
+            n++;
+            while (i <= j && consonant(b, i)) i++;
+        }
+        return n;
+    }
+
+    /**
+     * Tells whether b[0..j] has a vowel.
+     */
+    private static boolean vowelInStem(char[] b, int j) {
+        for (int i = 0; i <= j; i++) {
+            if (!consonant(b, i)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Tells whether b[j-1..j] is a double consonant.
+     */
+    private static boolean doubleConsonant(char[] b, int j) {
+        return j >= 1 && b[j] == b[j - 1] && consonant(b, j);
+    }
+
+    /**
+     * Tells whether b[i-2..i] is consonant-vowel-consonant, with a last consonant other than w,
+     * x or y: hop, but not snow or box.
+     */
+    private static boolean cvc(char[] b, int i) {
+        if (i < 2 || !consonant(b, i) || consonant(b, i - 1) || !consonant(b, i - 2)) return false;
+        char c = b[i];
+        return c != 'w' && c != 'x' && c != 'y';
+    }
+
+    /**
+     * Tells whether b[0..k] ends with a suffix.
+     */
+    private static boolean ends(char[] b, int k, String suffix) {
+        int start = k - suffix.length() + 1;
+        if (start < 0) return false;
+        for (int i = 0; i < suffix.length(); i++) {
+            if (b[start + i] != suffix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes a replacement after b[0..j], and returns the new index of the last character.
+     */
+    private static int setTo(char[] b, int j, String replacement) {
+        for (int i = 0; i < replacement.length(); i++) {
+            b[j + 1 + i] = replacement.charAt(i);
+        }
+        return j + replacement.length();
+    }
+}
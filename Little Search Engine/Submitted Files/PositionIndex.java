@@ -0,0 +1,183 @@
+package lse;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class holds, for each keyword and each document it occurs in, the positions of the keyword
+ * in the document (the index of the word among all words of the document, counting from 0).
+ * The positions of one keyword in one document are stored as increasing values, delta encoded
+ * with variable length integer codes in a byte array.
+ * <p>
+ * The documents of each keyword are kept in ascending order of ids, and the positions for a given
+ * document are found by binary search. New documents get ids larger than all ids seen before, so
+ * they are nearly always appended; a document merged again keeps its id, and its positions are
+ * replaced in place.
+ */
+class PositionIndex {
+
+    /**
+     * Documents of a keyword in ascending order of ids, with their encoded positions.
+     */
+    private static class Entry {
+        int[] documents = new int[4];
+        byte[][] positions = new byte[4][];
+        int size;
+    }
+
+    private final HashMap<String, Entry> entries = new HashMap<>(1000, 2.0f);
+
+    /**
+     * Initializes an empty index.
+     */
+    PositionIndex() {
+    }
+
+    /**
+     * Initializes a copy of an index, which can then be changed independently of the original.
+     * Encoded positions are shared, since they are only ever replaced, never changed.
+     *
+     * @param other Index to copy
+     */
+    PositionIndex(PositionIndex other) {
+        for (Map.Entry<String, Entry> otherEntry : other.entries.entrySet()) {
+            Entry source = otherEntry.getValue();
+            Entry entry = new Entry();
+            entry.documents = source.documents.clone();
+            entry.positions = source.positions.clone();
+            entry.size = source.size;
+            entries.put(otherEntry.getKey(), entry);
+        }
+    }
+
+    /**
+     * Records the positions of a keyword in a document.
+     *
+     * @param keyword   Keyword
+     * @param document  Document id; positions already recorded for it are replaced
+     * @param positions Positions of the keyword in the document, in increasing order
+     * @param count     Number of positions
+     */
+    void add(String keyword, int document, int[] positions, int count) {
+        Entry entry = entries.computeIfAbsent(keyword, kw -> new Entry());
+        int i = entry.size > 0 && entry.documents[entry.size - 1] < document
+                ? -entry.size - 1
+                : Arrays.binarySearch(entry.documents, 0, entry.size, document);
+        if (i >= 0) {
+            // same document merged again, its latest scan wins
+            entry.positions[i] = encode(positions, count);
+            return;
+        }
+
+        i = -i - 1;
+        if (entry.size == entry.documents.length) {
+            entry.documents = Arrays.copyOf(entry.documents, entry.size * 2);
+            entry.positions = Arrays.copyOf(entry.positions, entry.size * 2);
+        }
+        System.arraycopy(entry.documents, i, entry.documents, i + 1, entry.size - i);
+        System.arraycopy(entry.positions, i, entry.positions, i + 1, entry.size - i);
+        entry.documents[i] = document;
+        entry.positions[i] = encode(positions, count);
+        entry.size++;
+    }
+
+    /**
+     * Removes the positions of a keyword in a document.
+     *
+     * @param keyword  Keyword
+     * @param document Document id
+     */
+    void remove(String keyword, int document) {
+        Entry entry = entries.get(keyword);
+        if (entry == null) return;
+
+        int i = Arrays.binarySearch(entry.documents, 0, entry.size, document);
+        if (i < 0) return;
+
+        System.arraycopy(entry.documents, i + 1, entry.documents, i, entry.size - 1 - i);
+        System.arraycopy(entry.positions, i + 1, entry.positions, i, entry.size - 1 - i);
+        entry.size--;
+        entry.positions[entry.size] = null;
+        if (entry.size == 0) {
+            entries.remove(keyword);
+        }
+    }
+
+    /**
+     * Tells whether a keyword occurs in a document, without decoding positions.
+     *
+     * @param keyword  Keyword
+     * @param document Document id
+     * @return True if positions are recorded for the keyword in the document
+     */
+    boolean contains(String keyword, int document) {
+        Entry entry = entries.get(keyword);
+        return entry != null && Arrays.binarySearch(entry.documents, 0, entry.size, document) >= 0;
+    }
+
+    /**
+     * Returns the positions of a keyword in a document.
+     *
+     * @param keyword  Keyword
+     * @param document Document id
+     * @return Positions in increasing order, null if the keyword does not occur in the document
+     */
+    int[] positions(String keyword, int document) {
+        Entry entry = entries.get(keyword);
+        if (entry == null) return null;
+
+        int i = Arrays.binarySearch(entry.documents, 0, entry.size, document);
+        return i < 0 ? null : decode(entry.positions[i]);
+    }
+
+    /**
+     * Removes all positions.
+     */
+    void clear() {
+        entries.clear();
+    }
+
+    private static byte[] encode(int[] positions, int count) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(count + 1);
+        int previous = 0;
+        writeVarint(out, count);
+        for (int i = 0; i < count; i++) {
+            writeVarint(out, positions[i] - previous);
+            previous = positions[i];
+        }
+        return out.toByteArray();
+    }
+
+    private static int[] decode(byte[] bytes) {
+        int[] position = {0};
+        int[] positions = new int[readVarint(bytes, position)];
+        int previous = 0;
+        for (int i = 0; i < positions.length; i++) {
+            previous += readVarint(bytes, position);
+            positions[i] = previous;
+        }
+        return positions;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(byte[] bytes, int[] position) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[position[0]++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
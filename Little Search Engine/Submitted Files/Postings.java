@@ -0,0 +1,979 @@
+package lse;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * This class holds the occurrences of a keyword as (document id, frequency) pairs, instead of one
+ * Occurrence object per document. Pairs are maintained in DESCENDING order of frequencies, as in
+ * the occurrence lists of LittleSearchEngine.
+ * <p>
+ * A short list is kept as plain ints in a single array. Once it grows past BLOCK_SIZE pairs, it is
+ * split into blocks of pairs, each compressed with variable length integer codes: the document id
+ * as a (zigzag encoded) difference from the previous document id, and the frequency as its drop
+ * from the previous frequency, which is 0 for most pairs. Next to the blocks, skip data holds the
+ * index of the first pair of each block and its first and last frequencies, so the block holding
+ * a pair, or a frequency, is found without decoding anything, and a block whose pairs all have the
+ * same frequency never needs to be decoded to read frequencies. Blocks are only decoded when
+ * their document ids are read, one at a time, and the last decoded block is kept as long as reads
+ * stay in it; reading pairs in order decodes each block once.
+ * <p>
+ * Frequency order does not help to find a given document, so a compressed list also holds its
+ * pairs in ascending order of document ids, in blocks compressed the same way (document ids as
+ * differences from the previous one, frequencies as they are), with document id skip data: the
+ * first document id and the number of pairs of each block. The block that may hold a document is
+ * found by binary search over the first ids, so finding a document decodes a single block, and
+ * finding documents in ascending order, as intersections do, decodes each block at most once.
+ * These blocks are kept up to date by every insert and remove, which nearly always appends to or
+ * changes the last block, since new documents get the largest ids.
+ * <p>
+ * A list is written to an index file with write, blocks and skip data as they are, and read back
+ * with read, which reads the skip data only: each block is read from the (memory mapped) file the
+ * first time it is decoded, so a search that stops after a few pairs reads a few blocks.
+ * <p>
+ * A list may be read by several threads at once, as long as none of them changes it: a decoded
+ * block, in either order, is built into a new array and published with a single reference write, so a reader only ever sees it complete. Threads reading at once may
+ * replace each other's decoded block, which costs decoding again but is never wrong.
+ */
+class Postings {
+
+    /**
+     * Number of pairs above which a list is compressed, and target number of pairs per block.
+     * A block is split when it grows to twice this size.
+     */
+    static final int BLOCK_SIZE = 128;
+
+    /**
+     * Uncompressed pairs, while the list is short: document id of pair i is at 2*i, its frequency
+     * at 2*i+1. Null once the list is compressed.
+     */
+    private int[] pairs;
+
+    private int size;
+
+    /**
+     * Compressed blocks, and skip data: index of the first pair of each block (with one more entry,
+     * size, after the last block), and first and last frequency of each block.
+     */
+    private byte[][] blocks;
+    private int blockCount;
+    private int[] blockStarts;
+    private int[] firstFrequencies;
+    private int[] lastFrequencies;
+
+    /**
+     * The last decoded block, null if none.
+     */
+    private DecodedBlock decoded;
+
+    /**
+     * The pairs in ascending order of document ids, in compressed blocks, and document id skip
+     * data: first document id and number of pairs of each block. Null while the list is short.
+     */
+    private byte[][] documentBlocks;
+    private int documentBlockCount;
+    private int[] firstDocuments;
+    private int[] documentCounts;
+
+    /**
+     * The last decoded block of documentBlocks, null if none.
+     */
+    private DecodedBlock decodedByDocument;
+
+    /**
+     * For a list read from an index file, the file, and the position in it of every block of
+     * blocks and of documentBlocks, with one more entry, the end of the last block. A block that
+     * is null has not been read yet. Null for a list built in memory, or once it is changed.
+     */
+    private ByteBuffer file;
+    private int[] blockPositions;
+    private int[] documentBlockPositions;
+
+    /**
+     * Pairs of a block, in the same layout as pairs.
+     */
+    private static class DecodedBlock {
+        final int block;
+        final int[] pairs;
+
+        DecodedBlock(int block, int[] pairs) {
+            this.block = block;
+            this.pairs = pairs;
+        }
+    }
+
+    /**
+     * Initializes an empty list of postings.
+     */
+    Postings() {
+        pairs = new int[4];
+    }
+
+    /**
+     * Initializes a list of postings with pairs already in descending order of frequencies,
+     * compressing them in one pass.
+     *
+     * @param pairs Pairs, document id of pair i at 2*i and its frequency at 2*i+1
+     * @param size  Number of pairs
+     */
+    Postings(int[] pairs, int size) {
+        this.pairs = Arrays.copyOf(pairs, Math.max(4, 2 * size));
+        this.size = size;
+        if (size > BLOCK_SIZE) compress();
+    }
+
+    /**
+     * Initializes a copy of a list of postings, which can then be changed independently of the
+     * original. Compressed blocks are shared, since a block is never changed once encoded, only
+     * replaced.
+     *
+     * @param other Postings to copy
+     */
+    Postings(Postings other) {
+        size = other.size;
+        if (other.pairs != null) {
+            pairs = other.pairs.clone();
+        } else {
+            blocks = other.blocks.clone();
+            blockCount = other.blockCount;
+            blockStarts = other.blockStarts.clone();
+            firstFrequencies = other.firstFrequencies.clone();
+            lastFrequencies = other.lastFrequencies.clone();
+            decoded = other.decoded;
+            documentBlocks = other.documentBlocks.clone();
+            documentBlockCount = other.documentBlockCount;
+            firstDocuments = other.firstDocuments.clone();
+            documentCounts = other.documentCounts.clone();
+            decodedByDocument = other.decodedByDocument;
+            file = other.file;
+            blockPositions = other.blockPositions;
+            documentBlockPositions = other.documentBlockPositions;
+        }
+    }
+
+    /**
+     * Returns the union of lists of postings, as the postings of a keyword that occurs in a
+     * document as many times as all their keywords together. Pairs of equal frequencies are in
+     * ascending order of document ids.
+     *
+     * @param lists Postings to merge
+     * @return New postings, in descending order of frequencies
+     */
+    static Postings union(List<Postings> lists) {
+        HashMap<Integer, Integer> frequencies = new HashMap<>();
+        for (Postings postings : lists) {
+            for (int i = 0; i < postings.size(); i++) {
+                frequencies.merge(postings.document(i), postings.frequency(i), Integer::sum);
+            }
+        }
+
+        long[] sorted = new long[frequencies.size()];
+        int n = 0;
+        for (HashMap.Entry<Integer, Integer> entry : frequencies.entrySet()) {
+            // highest frequency first, then lowest document id
+            sorted[n++] = ((long) -entry.getValue() << 32) | entry.getKey();
+        }
+        Arrays.sort(sorted);
+
+        int[] pairs = new int[2 * n];
+        for (int i = 0; i < n; i++) {
+            pairs[2 * i] = (int) sorted[i];
+            pairs[2 * i + 1] = (int) -(sorted[i] >> 32);
+        }
+        return new Postings(pairs, n);
+    }
+
+    /**
+     * Writes the list to an index file (all ints big endian):
+     * <pre>
+     * size, blockCount, documentBlockCount
+     * blockStarts        blockCount+1 ints
+     * firstFrequencies   blockCount ints
+     * lastFrequencies    blockCount ints
+     * blockEnds          blockCount ints, end of each block from the start of the blocks
+     * firstDocuments     documentBlockCount ints
+     * documentCounts     documentBlockCount ints
+     * documentBlockEnds  documentBlockCount ints, end of each block from the start of the blocks
+     *                    in document order
+     * blocks, blocks in document order
+     * </pre>
+     * A short list is written as a single block, with no blocks in document order.
+     *
+     * @param out Stream to write to
+     * @throws IOException If the stream cannot be written
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        if (pairs != null) {
+            if (size == 0) {
+                out.writeInt(0);
+                out.writeInt(0);
+                out.writeInt(0);
+                return;
+            }
+            byte[] bytes = encodeBlock(pairs, 0, size);
+            out.writeInt(1);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeInt(size);
+            out.writeInt(pairs[1]);
+            out.writeInt(pairs[2 * size - 1]);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            return;
+        }
+
+        out.writeInt(blockCount);
+        out.writeInt(documentBlockCount);
+        for (int b = 0; b <= blockCount; b++) out.writeInt(blockStarts[b]);
+        for (int b = 0; b < blockCount; b++) out.writeInt(firstFrequencies[b]);
+        for (int b = 0; b < blockCount; b++) out.writeInt(lastFrequencies[b]);
+        int end = 0;
+        for (int b = 0; b < blockCount; b++) {
+            end += block(b).length;
+            out.writeInt(end);
+        }
+        for (int b = 0; b < documentBlockCount; b++) out.writeInt(firstDocuments[b]);
+        for (int b = 0; b < documentBlockCount; b++) out.writeInt(documentCounts[b]);
+        end = 0;
+        for (int b = 0; b < documentBlockCount; b++) {
+            end += documentBlock(b).length;
+            out.writeInt(end);
+        }
+        for (int b = 0; b < blockCount; b++) out.write(block(b));
+        for (int b = 0; b < documentBlockCount; b++) out.write(documentBlock(b));
+    }
+
+    /**
+     * Reads a list written by write. Only the skip data is read; blocks are read from the buffer
+     * when first decoded, so the buffer must not change while the list is in use. A short list
+     * is decoded at once.
+     *
+     * @param buffer   Buffer holding the list, usually a memory mapped index file
+     * @param position Position of the list in the buffer
+     * @return Postings
+     */
+    static Postings read(ByteBuffer buffer, int position) {
+        Postings postings = new Postings();
+        postings.size = buffer.getInt(position);
+        int blockCount = buffer.getInt(position + 4);
+        int documentBlockCount = buffer.getInt(position + 8);
+        if (blockCount == 0) return postings;
+
+        position += 12;
+        postings.blockCount = blockCount;
+        postings.blockStarts = readInts(buffer, position, blockCount + 1);
+        position += 4 * (blockCount + 1);
+        postings.firstFrequencies = readInts(buffer, position, blockCount);
+        position += 4 * blockCount;
+        postings.lastFrequencies = readInts(buffer, position, blockCount);
+        position += 4 * blockCount;
+        int[] blockEnds = readInts(buffer, position, blockCount);
+        position += 4 * blockCount;
+        postings.documentBlockCount = documentBlockCount;
+        postings.firstDocuments = readInts(buffer, position, documentBlockCount);
+        position += 4 * documentBlockCount;
+        postings.documentCounts = readInts(buffer, position, documentBlockCount);
+        position += 4 * documentBlockCount;
+        int[] documentBlockEnds = readInts(buffer, position, documentBlockCount);
+        position += 4 * documentBlockCount;
+
+        postings.blockPositions = positions(position, blockEnds);
+        postings.documentBlockPositions = positions(postings.blockPositions[blockCount], documentBlockEnds);
+        postings.blocks = new byte[blockCount][];
+        postings.documentBlocks = new byte[documentBlockCount][];
+        postings.file = buffer;
+        postings.pairs = null;
+        if (postings.size <= BLOCK_SIZE) postings.uncompress();
+        return postings;
+    }
+
+    /**
+     * Returns the size of a list written by write, without reading the list.
+     *
+     * @param buffer   Buffer holding the list
+     * @param position Position of the list in the buffer
+     * @return Number of (document id, frequency) pairs
+     */
+    static int readSize(ByteBuffer buffer, int position) {
+        return buffer.getInt(position);
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int position, int count) {
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = buffer.getInt(position + 4 * i);
+        }
+        return values;
+    }
+
+    /**
+     * Positions of blocks that start at a position, from their ends relative to it, with one more
+     * entry for the end of the last block.
+     */
+    private static int[] positions(int start, int[] ends) {
+        int[] positions = new int[ends.length + 1];
+        positions[0] = start;
+        for (int b = 0; b < ends.length; b++) {
+            positions[b + 1] = start + ends[b];
+        }
+        return positions;
+    }
+
+    /**
+     * Returns the number of (document id, frequency) pairs.
+     *
+     * @return Number of documents the keyword occurs in
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the document id of the i-th pair.
+     *
+     * @param i Pair index, 0..size()-1
+     * @return Document id
+     */
+    int document(int i) {
+        if (pairs != null) return pairs[2 * i];
+
+        int b = blockOf(i);
+        return decode(b)[2 * (i - blockStarts[b])];
+    }
+
+    /**
+     * Returns the frequency of the i-th pair.
+     *
+     * @param i Pair index, 0..size()-1
+     * @return Frequency
+     */
+    int frequency(int i) {
+        if (pairs != null) return pairs[2 * i + 1];
+
+        int b = blockOf(i);
+        if (firstFrequencies[b] == lastFrequencies[b]) return firstFrequencies[b];
+        return decode(b)[2 * (i - blockStarts[b]) + 1];
+    }
+
+    /**
+     * Appends a pair at the end, without checking the order. Used when the pairs are already
+     * known to be in descending order of frequencies.
+     *
+     * @param document  Document id
+     * @param frequency Frequency
+     */
+    void append(int document, int frequency) {
+        insertAt(size, document, frequency);
+    }
+
+    /**
+     * Inserts a pair in the correct position, based on descending frequencies. The position is
+     * found with the same binary search as LittleSearchEngine.insertLastOccurrence, so a pair
+     * goes in the same place its Occurrence would go in an occurrence list.
+     *
+     * @param document  Document id
+     * @param frequency Frequency
+     * @return Number of midpoints checked by the binary search
+     */
+    int insert(int document, int frequency) {
+        if (size == 0) {
+            insertAt(0, document, frequency);
+            return 0;
+        }
+
+        // the search never looks at the last position, where insertLastOccurrence has the
+        // new occurrence, so it is done before inserting
+        int highIndex = 0;
+        int lowIndex = size - 1;
+        int probes = 0;
+
+        do {
+            int mid = (highIndex + lowIndex) / 2;
+            probes++;
+            if (frequency > frequency(mid)) {
+                lowIndex = mid;
+            } else if (frequency < frequency(mid)) {
+                highIndex = mid + 1;
+            } else {
+                lowIndex = mid;
+                break;
+            }
+        } while (highIndex < lowIndex);
+
+        int index = lowIndex + (frequency > frequency(lowIndex) ? 0 : 1);
+        insertAt(index, document, frequency);
+        return probes;
+    }
+
+    /**
+     * Removes the pair for a document. The run of pairs with the given frequency is found by
+     * binary search, and only that run is scanned for the document.
+     *
+     * @param document  Document id
+     * @param frequency Frequency of the keyword in the document
+     * @return True if the pair was found and removed
+     */
+    boolean remove(int document, int frequency) {
+        int lowIndex = 0;
+        int highIndex = size;
+        while (lowIndex < highIndex) {
+            int mid = (lowIndex + highIndex) / 2;
+            if (frequency(mid) > frequency) {
+                lowIndex = mid + 1;
+            } else {
+                highIndex = mid;
+            }
+        }
+
+        for (int i = lowIndex; i < size && frequency(i) == frequency; i++) {
+            if (document(i) == document) {
+                removeAt(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the document ids of all pairs in ascending order, in a new array. A compressed list
+     * reads them from its blocks in document order, without sorting; a short list sorts them.
+     *
+     * @return Document ids in ascending order
+     */
+    int[] sortedDocuments() {
+        int[] documents = new int[size];
+        if (pairs != null) {
+            for (int i = 0; i < size; i++) {
+                documents[i] = pairs[2 * i];
+            }
+            Arrays.sort(documents);
+            return documents;
+        }
+
+        int n = 0;
+        for (int b = 0; b < documentBlockCount; b++) {
+            int[] block = decodeByDocument(b);
+            for (int i = 0; i < documentCounts[b]; i++) {
+                documents[n++] = block[2 * i];
+            }
+        }
+        return documents;
+    }
+
+    /**
+     * Returns the frequency of the keyword in a document. In a compressed list, the block of
+     * document ids that may hold the document is found with the skip data, and only that block
+     * is decoded; it is kept for the next call, so calls for ascending ids decode each block once.
+     *
+     * @param document Document id
+     * @return Frequency, 0 if the keyword does not occur in the document
+     */
+    int frequencyOf(int document) {
+        if (pairs != null) {
+            for (int i = 0; i < size; i++) {
+                if (pairs[2 * i] == document) return pairs[2 * i + 1];
+            }
+            return 0;
+        }
+
+        int b = documentBlockOf(document);
+        int[] block = decodeByDocument(b);
+        int i = searchDocument(block, documentCounts[b], document);
+        return i < 0 ? 0 : block[2 * i + 1];
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append('(').append(document(i)).append(',').append(frequency(i)).append(')');
+        }
+        return sb.append(']').toString();
+    }
+
+    private void insertAt(int index, int document, int frequency) {
+        if (pairs != null) {
+            if (2 * size == pairs.length) {
+                pairs = Arrays.copyOf(pairs, pairs.length * 2);
+            }
+            System.arraycopy(pairs, 2 * index, pairs, 2 * index + 2, 2 * (size - index));
+            pairs[2 * index] = document;
+            pairs[2 * index + 1] = frequency;
+            size++;
+            if (size > BLOCK_SIZE) compress();
+            return;
+        }
+
+        if (file != null) readBlocks();
+        insertByDocument(document, frequency);
+
+        // a pair between two blocks goes at the end of the first one
+        int b = index == size ? blockCount - 1 : blockOf(index);
+        if (index == blockStarts[b] && b > 0) b--;
+        int count = blockStarts[b + 1] - blockStarts[b];
+        int offset = index - blockStarts[b];
+        int[] block = Arrays.copyOf(decode(b), 2 * (count + 1));
+        System.arraycopy(block, 2 * offset, block, 2 * offset + 2, 2 * (count - offset));
+        block[2 * offset] = document;
+        block[2 * offset + 1] = frequency;
+        count++;
+        size++;
+        for (int c = b + 1; c <= blockCount; c++) {
+            blockStarts[c]++;
+        }
+
+        if (count < 2 * BLOCK_SIZE) {
+            encode(b, block, 0, count);
+            decoded = new DecodedBlock(b, block);
+        } else {
+            openBlock(b + 1);
+            blockStarts[b + 1] = blockStarts[b] + count / 2;
+            encode(b, block, 0, count / 2);
+            encode(b + 1, block, count / 2, count - count / 2);
+            decoded = null;
+        }
+    }
+
+    private void removeAt(int index) {
+        if (pairs != null) {
+            System.arraycopy(pairs, 2 * index + 2, pairs, 2 * index, 2 * (size - 1 - index));
+            size--;
+            return;
+        }
+
+        if (file != null) readBlocks();
+        int b = blockOf(index);
+        int count = blockStarts[b + 1] - blockStarts[b];
+        int offset = index - blockStarts[b];
+        int[] block = decode(b).clone();
+        removeByDocument(block[2 * offset]);
+        System.arraycopy(block, 2 * offset + 2, block, 2 * offset, 2 * (count - 1 - offset));
+        count--;
+        size--;
+        for (int c = b + 1; c <= blockCount; c++) {
+            blockStarts[c]--;
+        }
+
+        if (count > 0) {
+            encode(b, block, 0, count);
+            decoded = new DecodedBlock(b, block);
+        } else {
+            closeBlock(b);
+            decoded = null;
+        }
+
+        if (size <= BLOCK_SIZE / 2) uncompress();
+    }
+
+    /**
+     * Splits the plain pairs into compressed blocks.
+     */
+    private void compress() {
+        blockCount = 0;
+        int blocksNeeded = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        blocks = new byte[blocksNeeded + 1][];
+        blockStarts = new int[blocksNeeded + 2];
+        firstFrequencies = new int[blocksNeeded + 1];
+        lastFrequencies = new int[blocksNeeded + 1];
+        for (int start = 0; start < size; start += BLOCK_SIZE) {
+            int count = Math.min(BLOCK_SIZE, size - start);
+            blockStarts[blockCount] = start;
+            encode(blockCount, pairs, start, count);
+            blockCount++;
+        }
+        blockStarts[blockCount] = size;
+        decoded = null;
+
+        long[] byDocument = new long[size];
+        for (int i = 0; i < size; i++) {
+            byDocument[i] = ((long) pairs[2 * i] << 32) | pairs[2 * i + 1];
+        }
+        Arrays.sort(byDocument);
+        int[] documentPairs = new int[2 * size];
+        for (int i = 0; i < size; i++) {
+            documentPairs[2 * i] = (int) (byDocument[i] >>> 32);
+            documentPairs[2 * i + 1] = (int) byDocument[i];
+        }
+        documentBlockCount = 0;
+        documentBlocks = new byte[blocksNeeded + 1][];
+        firstDocuments = new int[blocksNeeded + 1];
+        documentCounts = new int[blocksNeeded + 1];
+        for (int start = 0; start < size; start += BLOCK_SIZE) {
+            encodeByDocument(documentBlockCount++, documentPairs, start, Math.min(BLOCK_SIZE, size - start));
+        }
+        decodedByDocument = null;
+        pairs = null;
+    }
+
+    /**
+     * Turns the blocks back into plain pairs.
+     */
+    private void uncompress() {
+        int[] plain = new int[Math.max(4, 2 * size)];
+        for (int b = 0; b < blockCount; b++) {
+            int start = blockStarts[b];
+            int count = blockStarts[b + 1] - start;
+            System.arraycopy(decode(b), 0, plain, 2 * start, 2 * count);
+        }
+        pairs = plain;
+        blocks = null;
+        blockStarts = firstFrequencies = lastFrequencies = null;
+        blockCount = 0;
+        decoded = null;
+        documentBlocks = null;
+        firstDocuments = documentCounts = null;
+        documentBlockCount = 0;
+        decodedByDocument = null;
+        file = null;
+        blockPositions = documentBlockPositions = null;
+    }
+
+    /**
+     * Reads all the blocks not read yet from the index file, before the list is changed, since
+     * changes move blocks around.
+     */
+    private void readBlocks() {
+        for (int b = 0; b < blockCount; b++) {
+            block(b);
+        }
+        for (int b = 0; b < documentBlockCount; b++) {
+            documentBlock(b);
+        }
+        file = null;
+        blockPositions = documentBlockPositions = null;
+    }
+
+    /**
+     * Returns the bytes of block b, reading them from the index file the first time.
+     */
+    private byte[] block(int b) {
+        byte[] bytes = blocks[b];
+        if (bytes == null) {
+            bytes = readBytes(file, blockPositions[b], blockPositions[b + 1]);
+            blocks[b] = bytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the bytes of block b in document order, reading them from the index file the
+     * first time.
+     */
+    private byte[] documentBlock(int b) {
+        byte[] bytes = documentBlocks[b];
+        if (bytes == null) {
+            bytes = readBytes(file, documentBlockPositions[b], documentBlockPositions[b + 1]);
+            documentBlocks[b] = bytes;
+        }
+        return bytes;
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        ByteBuffer view = buffer.duplicate();
+        view.position(start);
+        view.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Makes room for a new block at position b. Its start must be set by the caller.
+     */
+    private void openBlock(int b) {
+        if (blockCount == blocks.length) {
+            int capacity = blocks.length * 2;
+            blocks = Arrays.copyOf(blocks, capacity);
+            blockStarts = Arrays.copyOf(blockStarts, capacity + 1);
+            firstFrequencies = Arrays.copyOf(firstFrequencies, capacity);
+            lastFrequencies = Arrays.copyOf(lastFrequencies, capacity);
+        }
+        System.arraycopy(blocks, b, blocks, b + 1, blockCount - b);
+        System.arraycopy(blockStarts, b, blockStarts, b + 1, blockCount + 1 - b);
+        System.arraycopy(firstFrequencies, b, firstFrequencies, b + 1, blockCount - b);
+        System.arraycopy(lastFrequencies, b, lastFrequencies, b + 1, blockCount - b);
+        blockCount++;
+    }
+
+    private void closeBlock(int b) {
+        System.arraycopy(blocks, b + 1, blocks, b, blockCount - 1 - b);
+        System.arraycopy(blockStarts, b + 1, blockStarts, b, blockCount - b);
+        System.arraycopy(firstFrequencies, b + 1, firstFrequencies, b, blockCount - 1 - b);
+        System.arraycopy(lastFrequencies, b + 1, lastFrequencies, b, blockCount - 1 - b);
+        blockCount--;
+        blocks[blockCount] = null;
+    }
+
+    /**
+     * Finds the block holding pair i by binary search over the block starts, trying the last
+     * decoded block first.
+     */
+    private int blockOf(int i) {
+        DecodedBlock last = decoded;
+        if (last != null && i >= blockStarts[last.block] && i < blockStarts[last.block + 1]) {
+            return last.block;
+        }
+        int b = Arrays.binarySearch(blockStarts, 0, blockCount, i);
+        return b >= 0 ? b : -b - 2;
+    }
+
+    /**
+     * Returns the pairs of block b, decoding it unless it is the last decoded block. The array
+     * must not be modified. Each decode fills a new array rather than reusing the last one, since
+     * a thread may still be reading the last one.
+     */
+    private int[] decode(int b) {
+        DecodedBlock last = decoded;
+        if (last != null && last.block == b) return last.pairs;
+
+        byte[] bytes = block(b);
+        int count = blockStarts[b + 1] - blockStarts[b];
+        int[] block = new int[2 * count];
+        int position = 0;
+        int document = 0;
+        int frequency = firstFrequencies[b];
+        for (int i = 0; i < count; i++) {
+            int value = 0;
+            int shift = 0;
+            byte v;
+            do {
+                v = bytes[position++];
+                value |= (v & 0x7F) << shift;
+                shift += 7;
+            } while (v < 0);
+            document += (value >>> 1) ^ -(value & 1);
+
+            value = 0;
+            shift = 0;
+            do {
+                v = bytes[position++];
+                value |= (v & 0x7F) << shift;
+                shift += 7;
+            } while (v < 0);
+            frequency -= value;
+
+            block[2 * i] = document;
+            block[2 * i + 1] = frequency;
+        }
+        decoded = new DecodedBlock(b, block);
+        return block;
+    }
+
+    /**
+     * Encodes count pairs of source, from pair start on, as block b, and sets its frequency skip
+     * data. The codes are sized in a first pass, so the block is allocated at its exact size.
+     */
+    private void encode(int b, int[] source, int start, int count) {
+        blocks[b] = encodeBlock(source, start, count);
+        firstFrequencies[b] = source[2 * start + 1];
+        lastFrequencies[b] = source[2 * (start + count - 1) + 1];
+    }
+
+    private static byte[] encodeBlock(int[] source, int start, int count) {
+        int length = 0;
+        int previousDocument = 0;
+        int previousFrequency = source[2 * start + 1];
+        for (int i = start; i < start + count; i++) {
+            int delta = source[2 * i] - previousDocument;
+            length += varintLength((delta << 1) ^ (delta >> 31));
+            length += varintLength(previousFrequency - source[2 * i + 1]);
+            previousDocument = source[2 * i];
+            previousFrequency = source[2 * i + 1];
+        }
+
+        byte[] bytes = new byte[length];
+        int position = 0;
+        previousDocument = 0;
+        previousFrequency = source[2 * start + 1];
+        for (int i = start; i < start + count; i++) {
+            int delta = source[2 * i] - previousDocument;
+            position = writeVarint(bytes, position, (delta << 1) ^ (delta >> 31));
+            position = writeVarint(bytes, position, previousFrequency - source[2 * i + 1]);
+            previousDocument = source[2 * i];
+            previousFrequency = source[2 * i + 1];
+        }
+        return bytes;
+    }
+
+    /**
+     * Inserts a pair in the blocks in document order, after any pair of the same document.
+     */
+    private void insertByDocument(int document, int frequency) {
+        int b = documentBlockOf(document);
+        int count = documentCounts[b];
+        int[] block = decodeByDocument(b);
+        int offset = searchDocument(block, count, document);
+        offset = offset < 0 ? -offset - 1 : offset + 1;
+        int[] grown = new int[2 * (count + 1)];
+        System.arraycopy(block, 0, grown, 0, 2 * offset);
+        System.arraycopy(block, 2 * offset, grown, 2 * offset + 2, 2 * (count - offset));
+        grown[2 * offset] = document;
+        grown[2 * offset + 1] = frequency;
+        count++;
+
+        if (count < 2 * BLOCK_SIZE) {
+            encodeByDocument(b, grown, 0, count);
+            decodedByDocument = new DecodedBlock(b, grown);
+        } else {
+            if (documentBlockCount == documentBlocks.length) {
+                int capacity = documentBlocks.length * 2;
+                documentBlocks = Arrays.copyOf(documentBlocks, capacity);
+                firstDocuments = Arrays.copyOf(firstDocuments, capacity);
+                documentCounts = Arrays.copyOf(documentCounts, capacity);
+            }
+            System.arraycopy(documentBlocks, b + 1, documentBlocks, b + 2, documentBlockCount - b - 1);
+            System.arraycopy(firstDocuments, b + 1, firstDocuments, b + 2, documentBlockCount - b - 1);
+            System.arraycopy(documentCounts, b + 1, documentCounts, b + 2, documentBlockCount - b - 1);
+            documentBlockCount++;
+            encodeByDocument(b, grown, 0, count / 2);
+            encodeByDocument(b + 1, grown, count / 2, count - count / 2);
+            decodedByDocument = null;
+        }
+    }
+
+    /**
+     * Removes a pair of a document from the blocks in document order.
+     */
+    private void removeByDocument(int document) {
+        int b = documentBlockOf(document);
+        int count = documentCounts[b];
+        int[] block = decodeByDocument(b);
+        int offset = searchDocument(block, count, document);
+        int[] shrunk = new int[2 * (count - 1)];
+        System.arraycopy(block, 0, shrunk, 0, 2 * offset);
+        System.arraycopy(block, 2 * offset + 2, shrunk, 2 * offset, 2 * (count - 1 - offset));
+        count--;
+
+        if (count > 0) {
+            encodeByDocument(b, shrunk, 0, count);
+            decodedByDocument = new DecodedBlock(b, shrunk);
+        } else {
+            System.arraycopy(documentBlocks, b + 1, documentBlocks, b, documentBlockCount - 1 - b);
+            System.arraycopy(firstDocuments, b + 1, firstDocuments, b, documentBlockCount - 1 - b);
+            System.arraycopy(documentCounts, b + 1, documentCounts, b, documentBlockCount - 1 - b);
+            documentBlockCount--;
+            documentBlocks[documentBlockCount] = null;
+            decodedByDocument = null;
+        }
+    }
+
+    /**
+     * Finds the block in document order that holds a document if any pair does, by binary
+     * search over the first document ids: the last block whose first id is not larger.
+     */
+    private int documentBlockOf(int document) {
+        DecodedBlock last = decodedByDocument;
+        if (last != null && document >= firstDocuments[last.block]
+                && (last.block + 1 == documentBlockCount || document < firstDocuments[last.block + 1])) {
+            return last.block;
+        }
+        int b = Arrays.binarySearch(firstDocuments, 0, documentBlockCount, document);
+        return b >= 0 ? b : Math.max(0, -b - 2);
+    }
+
+    /**
+     * Finds a document among count pairs in ascending order of document ids, by binary search.
+     *
+     * @return Index of a pair of the document, otherwise (-(insertion point) - 1)
+     */
+    private static int searchDocument(int[] block, int count, int document) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (block[2 * mid] < document) {
+                low = mid + 1;
+            } else if (block[2 * mid] > document) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Returns the pairs of block b in document order, decoding it unless it is the last decoded
+     * one. The array must not be modified.
+     */
+    private int[] decodeByDocument(int b) {
+        DecodedBlock last = decodedByDocument;
+        if (last != null && last.block == b) return last.pairs;
+
+        byte[] bytes = documentBlock(b);
+        int count = documentCounts[b];
+        int[] block = new int[2 * count];
+        int[] position = {0};
+        int document = firstDocuments[b];
+        for (int i = 0; i < count; i++) {
+            document += readVarint(bytes, position);
+            block[2 * i] = document;
+            block[2 * i + 1] = readVarint(bytes, position);
+        }
+        decodedByDocument = new DecodedBlock(b, block);
+        return block;
+    }
+
+    /**
+     * Encodes count pairs of source, in ascending order of document ids, from pair start on, as
+     * block b in document order, and sets its skip data.
+     */
+    private void encodeByDocument(int b, int[] source, int start, int count) {
+        int length = 0;
+        int previousDocument = source[2 * start];
+        for (int i = start; i < start + count; i++) {
+            length += varintLength(source[2 * i] - previousDocument);
+            length += varintLength(source[2 * i + 1]);
+            previousDocument = source[2 * i];
+        }
+
+        byte[] bytes = new byte[length];
+        int position = 0;
+        previousDocument = source[2 * start];
+        for (int i = start; i < start + count; i++) {
+            position = writeVarint(bytes, position, source[2 * i] - previousDocument);
+            position = writeVarint(bytes, position, source[2 * i + 1]);
+            previousDocument = source[2 * i];
+        }
+        documentBlocks[b] = bytes;
+        firstDocuments[b] = source[2 * start];
+        documentCounts[b] = count;
+    }
+
+    private static int readVarint(byte[] bytes, int[] position) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[position[0]++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static int varintLength(int value) {
+        int length = 1;
+        while ((value & ~0x7F) != 0) {
+            length++;
+            value >>>= 7;
+        }
+        return length;
+    }
+
+    private static int writeVarint(byte[] bytes, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[position++] = (byte) value;
+        return position;
+    }
+}
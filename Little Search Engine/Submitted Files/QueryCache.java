@@ -0,0 +1,162 @@
+package lse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class caches search results, keyed by a normalized form of the query, and evicts the least
+ * recently used results when either the number of results or their estimated memory goes over
+ * a limit. Each result records the keywords it was computed from, so that a change to the postings
+ * of a keyword invalidates exactly the results that used it. Results that also depend on
+ * statistics of the whole collection (number of documents, average length) are invalidated by
+ * any change.
+ */
+class QueryCache {
+
+    /**
+     * A cached result, with what it depends on.
+     */
+    private static class Entry {
+        final ArrayList<String> result;
+        final String[] keywords;
+        final boolean collectionWide;
+        final long bytes;
+
+        Entry(ArrayList<String> result, String[] keywords, boolean collectionWide, long bytes) {
+            this.result = result;
+            this.keywords = keywords;
+            this.collectionWide = collectionWide;
+            this.bytes = bytes;
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private long bytes;
+
+    /**
+     * Entries by query key, in least to most recently used order.
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Query keys by keyword, and the keys of collection wide entries.
+     */
+    private final HashMap<String, HashSet<String>> keysByKeyword = new HashMap<>();
+    private final HashSet<String> collectionWideKeys = new HashSet<>();
+
+    /**
+     * Initializes an empty cache.
+     *
+     * @param maxEntries Maximum number of cached results
+     * @param maxBytes   Maximum estimated memory of cached results, in bytes
+     */
+    QueryCache(int maxEntries, long maxBytes) {
+        if (maxEntries < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("Cache limits must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cached result of a query, and marks it as most recently used.
+     *
+     * @param key Normalized query
+     * @return Cached result (an empty list if the query had no matches), null if not cached
+     */
+    ArrayList<String> get(String key) {
+        Entry entry = entries.get(key);
+        return entry == null ? null : entry.result;
+    }
+
+    /**
+     * Caches the result of a query, evicting least recently used results if needed.
+     *
+     * @param key            Normalized query
+     * @param keywords       Keywords whose postings the result was computed from
+     * @param collectionWide True if the result also depends on statistics of the whole collection
+     * @param result         Result (an empty list if the query had no matches)
+     */
+    void put(String key, String[] keywords, boolean collectionWide, ArrayList<String> result) {
+        remove(key);
+
+        // rough size: entry and map node overhead, key chars, one reference per document name
+        // (names are shared with the document table)
+        long entryBytes = 128 + 2L * key.length() + 8L * (keywords.length + result.size());
+        if (entryBytes > maxBytes) return;
+
+        entries.put(key, new Entry(result, keywords, collectionWide, entryBytes));
+        bytes += entryBytes;
+        for (String keyword : keywords) {
+            keysByKeyword.computeIfAbsent(keyword, kw -> new HashSet<>()).add(key);
+        }
+        if (collectionWide) {
+            collectionWideKeys.add(key);
+        }
+
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (entries.size() > maxEntries || bytes > maxBytes) {
+            Map.Entry<String, Entry> evicted = eldest.next();
+            eldest.remove();
+            unlink(evicted.getKey(), evicted.getValue());
+        }
+    }
+
+    /**
+     * Removes the results computed from the postings of a keyword.
+     *
+     * @param keyword Keyword whose postings changed
+     */
+    void invalidate(String keyword) {
+        HashSet<String> keys = keysByKeyword.get(keyword);
+        if (keys == null) return;
+
+        for (String key : new ArrayList<>(keys)) {
+            remove(key);
+        }
+    }
+
+    /**
+     * Removes the results that depend on statistics of the whole collection.
+     */
+    void invalidateCollectionWide() {
+        for (String key : new ArrayList<>(collectionWideKeys)) {
+            remove(key);
+        }
+    }
+
+    /**
+     * Removes all results.
+     */
+    void clear() {
+        entries.clear();
+        keysByKeyword.clear();
+        collectionWideKeys.clear();
+        bytes = 0;
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            unlink(key, entry);
+        }
+    }
+
+    private void unlink(String key, Entry entry) {
+        bytes -= entry.bytes;
+        for (String keyword : entry.keywords) {
+            HashSet<String> keys = keysByKeyword.get(keyword);
+            if (keys == null) continue;
+            keys.remove(key);
+            if (keys.isEmpty()) keysByKeyword.remove(keyword);
+        }
+        if (entry.collectionWide) {
+            collectionWideKeys.remove(key);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package lse;
+
+/**
+ * This class encapsulates a document found by a search, with its total score for the keywords
+ * searched for.
+ */
+public class ScoredDocument {
+
+    /**
+     * Document name.
+     */
+    String document;
+
+    /**
+     * Total score of the document, as computed by the Scorer of the search.
+     */
+    float score;
+
+    /**
+     * Initializes this result with the given document, score pair.
+     *
+     * @param document Document name
+     * @param score    Total score
+     */
+    public ScoredDocument(String document, float score) {
+        this.document = document;
+        this.score = score;
+    }
+
+    /**
+     * Returns the document name.
+     *
+     * @return Document name
+     */
+    public String getDocument() {
+        return document;
+    }
+
+    /**
+     * Returns the total score.
+     *
+     * @return Score
+     */
+    public float getScore() {
+        return score;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return "(" + document + "," + score + ")";
+    }
+}
@@ -0,0 +1,140 @@
+package lse;
+
+/**
+ * This interface ranks documents for topKSearch. The score of a document is the sum, over the
+ * keywords searched for, of score(frequency, idf, norm), where idf is computed once per keyword
+ * and query from the number of documents the keyword occurs in, and norm is computed once per
+ * document (and reused by all queries until the index changes) from the document's length, which
+ * is its number of keyword occurrences.
+ * <p>
+ * For topKSearch to stop reading postings early, score must not decrease when either the
+ * frequency or the norm increases.
+ */
+public interface Scorer {
+
+    /**
+     * Ranks documents on the plain sum of keyword frequencies.
+     */
+    Scorer FREQUENCY = new Frequency();
+
+    /**
+     * Returns the weight of a keyword.
+     *
+     * @param documentFrequency Number of documents the keyword occurs in
+     * @param documentCount     Number of documents in the index
+     * @return Keyword weight
+     */
+    float idf(int documentFrequency, int documentCount);
+
+    /**
+     * Returns the length normalization factor of a document.
+     *
+     * @param documentLength Number of keyword occurrences in the document
+     * @param averageLength  Average number of keyword occurrences per document
+     * @return Normalization factor, larger for documents that should score higher
+     */
+    float norm(int documentLength, float averageLength);
+
+    /**
+     * Returns the score of a keyword in a document.
+     *
+     * @param frequency Frequency of the keyword in the document
+     * @param idf       Weight of the keyword
+     * @param norm      Normalization factor of the document
+     * @return Score
+     */
+    float score(int frequency, float idf, float norm);
+
+    /**
+     * Returns a TF-IDF scorer: (1 + ln tf) * (1 + ln(N/df)) / sqrt(length).
+     *
+     * @return TF-IDF scorer
+     */
+    static Scorer tfIdf() {
+        return new TfIdf();
+    }
+
+    /**
+     * Returns an Okapi BM25 scorer with the usual parameters, k1 = 1.2 and b = 0.75.
+     *
+     * @return BM25 scorer
+     */
+    static Scorer bm25() {
+        return new BM25(1.2f, 0.75f);
+    }
+
+    /**
+     * Returns an Okapi BM25 scorer.
+     *
+     * @param k1 Term frequency saturation, typically 1.2 to 2.0
+     * @param b  Length normalization, 0 (none) to 1 (full)
+     * @return BM25 scorer
+     */
+    static Scorer bm25(float k1, float b) {
+        return new BM25(k1, b);
+    }
+
+    /**
+     * Sum of frequencies, the ranking of top5search.
+     */
+    class Frequency implements Scorer {
+        public float idf(int documentFrequency, int documentCount) {
+            return 1;
+        }
+
+        public float norm(int documentLength, float averageLength) {
+            return 1;
+        }
+
+        public float score(int frequency, float idf, float norm) {
+            return frequency;
+        }
+    }
+
+    /**
+     * Logarithmic term frequency, logarithmic inverse document frequency, and cosine-style
+     * length normalization.
+     */
+    class TfIdf implements Scorer {
+        public float idf(int documentFrequency, int documentCount) {
+            return 1 + (float) Math.log((double) documentCount / documentFrequency);
+        }
+
+        public float norm(int documentLength, float averageLength) {
+            return documentLength == 0 ? 0 : 1 / (float) Math.sqrt(documentLength);
+        }
+
+        public float score(int frequency, float idf, float norm) {
+            return (1 + (float) Math.log(frequency)) * idf * norm;
+        }
+    }
+
+    /**
+     * Okapi BM25. The norm is 1 / (1 - b + b * length / averageLength), so that the usual
+     * k1 * (1 - b + b * length / averageLength) term is k1 / norm.
+     */
+    class BM25 implements Scorer {
+        private final float k1;
+        private final float b;
+
+        BM25(float k1, float b) {
+            if (k1 < 0 || b < 0 || b > 1) {
+                throw new IllegalArgumentException("Invalid BM25 parameters: k1=" + k1 + ", b=" + b);
+            }
+            this.k1 = k1;
+            this.b = b;
+        }
+
+        public float idf(int documentFrequency, int documentCount) {
+            return (float) Math.log(1 + (documentCount - documentFrequency + 0.5) / (documentFrequency + 0.5));
+        }
+
+        public float norm(int documentLength, float averageLength) {
+            return 1 / (1 - b + b * documentLength / averageLength);
+        }
+
+        public float score(int frequency, float idf, float norm) {
+            return idf * frequency * (k1 + 1) / (frequency + k1 / norm);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package lse;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class holds the counters and latency histograms of a LittleSearchEngine. They are
+ * updated by the engine as it works (and may be updated by several indexing threads at once),
+ * and read through snapshot() or JMX once registered with registerMBean. Code that updates a
+ * metric often looks it up once, with counter, latency or query, and keeps it, so that an update
+ * does not search the maps by name.
+ * <p>
+ * Counters:
+ * <pre>
+ * documents.scanned       documents scanned for keywords
+ * documents.merged        documents merged into the index
+ * documents.removed       documents removed from the index
+ * postings.inserts        (document, frequency) pairs inserted into postings
+ * postings.insert.probes  midpoints visited by the binary searches of those inserts
+ * insertLastOccurrence.probes  midpoints visited by insertLastOccurrence binary searches
+ * queries.&lt;name&gt;          queries run, by search method
+ * cache.hits, cache.misses     query cache lookups
+ * </pre>
+ * Latencies (nanoseconds):
+ * <pre>
+ * scan                    scanning one document into keywords (tokenization)
+ * merge                   merging the keywords of one document into the index
+ * insertLastOccurrence    one call of insertLastOccurrence
+ * query.&lt;name&gt;            one query, by search method, including cache lookups
+ * </pre>
+ */
+public class SearchMetrics implements SearchMetricsMXBean {
+
+    private final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+
+    /**
+     * A copy of all metrics at one point in time.
+     */
+    public static class Snapshot {
+        private final Map<String, Long> counters;
+        private final Map<String, LatencyHistogram.Snapshot> latencies;
+
+        Snapshot(Map<String, Long> counters, Map<String, LatencyHistogram.Snapshot> latencies) {
+            this.counters = Collections.unmodifiableMap(counters);
+            this.latencies = Collections.unmodifiableMap(latencies);
+        }
+
+        /**
+         * Returns the counters, in order of names.
+         *
+         * @return Counter values by name
+         */
+        public Map<String, Long> getCounters() {
+            return counters;
+        }
+
+        /**
+         * Returns a counter.
+         *
+         * @param name Counter name
+         * @return Counter value, 0 if it was never incremented
+         */
+        public long getCounter(String name) {
+            Long value = counters.get(name);
+            return value == null ? 0 : value;
+        }
+
+        /**
+         * Returns the latency histograms, in order of names.
+         *
+         * @return Histogram snapshots by name
+         */
+        public Map<String, LatencyHistogram.Snapshot> getLatencies() {
+            return latencies;
+        }
+
+        /**
+         * Returns a latency histogram.
+         *
+         * @param name Histogram name
+         * @return Histogram snapshot, null if nothing was ever recorded under the name
+         */
+        public LatencyHistogram.Snapshot getLatency(String name) {
+            return latencies.get(name);
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#toString()
+         */
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, Long> counter : counters.entrySet()) {
+                sb.append(counter.getKey()).append(": ").append(counter.getValue()).append('\n');
+            }
+            for (Map.Entry<String, LatencyHistogram.Snapshot> latency : latencies.entrySet()) {
+                sb.append(latency.getKey()).append(": ").append(latency.getValue()).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * The query counter and latency histogram of one search method, looked up once.
+     */
+    static class QueryMetrics {
+        private final LongAdder count;
+        private final LatencyHistogram latency;
+
+        QueryMetrics(LongAdder count, LatencyHistogram latency) {
+            this.count = count;
+            this.latency = latency;
+        }
+
+        /**
+         * Counts a query, and records the time since it started.
+         *
+         * @param start Start time, from System.nanoTime()
+         */
+        void recordSince(long start) {
+            count.increment();
+            latency.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Returns a counter, created at 0 if it does not exist yet.
+     *
+     * @param name Counter name
+     * @return Counter
+     */
+    LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /**
+     * Returns a latency histogram, created empty if it does not exist yet.
+     *
+     * @param name Histogram name
+     * @return Histogram
+     */
+    LatencyHistogram latency(String name) {
+        return latencies.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    /**
+     * Returns the metrics of a search method: the counter queries.(name) and the latency
+     * histogram query.(name).
+     *
+     * @param name Search method
+     * @return Query metrics
+     */
+    QueryMetrics query(String name) {
+        return new QueryMetrics(counter("queries." + name), latency("query." + name));
+    }
+
+    /**
+     * Adds to a counter.
+     *
+     * @param name  Counter name
+     * @param delta Amount to add
+     */
+    void increment(String name, long delta) {
+        counter(name).add(delta);
+    }
+
+    /**
+     * Records a duration in a latency histogram.
+     *
+     * @param name  Histogram name
+     * @param nanos Duration in nanoseconds
+     */
+    void record(String name, long nanos) {
+        latency(name).record(nanos);
+    }
+
+    /**
+     * Records the time since a start time in a latency histogram.
+     *
+     * @param name  Histogram name
+     * @param start Start time, from System.nanoTime()
+     */
+    void recordSince(String name, long start) {
+        record(name, System.nanoTime() - start);
+    }
+
+    /**
+     * Takes a snapshot of all counters and latency histograms.
+     *
+     * @return Snapshot
+     */
+    public Snapshot snapshot() {
+        TreeMap<String, Long> counterValues = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            counterValues.put(counter.getKey(), counter.getValue().sum());
+        }
+        TreeMap<String, LatencyHistogram.Snapshot> histograms = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> latency : latencies.entrySet()) {
+            histograms.put(latency.getKey(), latency.getValue().snapshot());
+        }
+        return new Snapshot(counterValues, histograms);
+    }
+
+    public Map<String, Long> getCounters() {
+        return snapshot().getCounters();
+    }
+
+    public Map<String, Double> getLatencies() {
+        TreeMap<String, Double> values = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram.Snapshot> latency : snapshot().getLatencies().entrySet()) {
+            String name = latency.getKey();
+            LatencyHistogram.Snapshot histogram = latency.getValue();
+            values.put(name + ".count", (double) histogram.getCount());
+            values.put(name + ".mean", histogram.getMean() / 1000);
+            values.put(name + ".p50", histogram.getValueAtQuantile(0.5) / 1000.0);
+            values.put(name + ".p99", histogram.getValueAtQuantile(0.99) / 1000.0);
+            values.put(name + ".max", histogram.getMax() / 1000.0);
+        }
+        return values;
+    }
+
+    public void reset() {
+        for (LongAdder counter : counters.values()) {
+            counter.reset();
+        }
+        for (LatencyHistogram latency : latencies.values()) {
+            latency.reset();
+        }
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server, under the name
+     * lse:type=SearchMetrics,name=(name).
+     *
+     * @param name Name that tells engines apart, for instance "main" or "shard0"
+     * @return Object name the metrics were registered under
+     * @throws JMException If the name is invalid or already registered
+     */
+    public ObjectName registerMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName("lse:type=SearchMetrics,name=" + ObjectName.quote(name));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /**
+     * Unregisters these metrics from the platform MBean server.
+     *
+     * @param objectName Object name returned by registerMBean
+     * @throws JMException If nothing is registered under the name
+     */
+    public void unregisterMBean(ObjectName objectName) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    }
+}
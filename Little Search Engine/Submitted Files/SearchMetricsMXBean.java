@@ -0,0 +1,31 @@
+package lse;
+
+import java.util.Map;
+
+/**
+ * This interface exposes the metrics of a LittleSearchEngine through JMX, for instance to
+ * JConsole or a monitoring agent. See SearchMetrics for the names of counters and latencies.
+ */
+public interface SearchMetricsMXBean {
+
+    /**
+     * Returns the current value of every counter.
+     *
+     * @return Counter values by name
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * Returns, for every latency histogram, its count, mean, median, 99th percentile and maximum
+     * in microseconds, under the histogram name followed by ".count", ".mean", ".p50", ".p99" and
+     * ".max".
+     *
+     * @return Latency statistics by name
+     */
+    Map<String, Double> getLatencies();
+
+    /**
+     * Resets all counters and latency histograms to zero.
+     */
+    void reset();
+}
@@ -0,0 +1,66 @@
+package lse;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This interface is one partition of the documents searched by a ShardedSearchEngine. Every
+ * method works only with document names, keywords and scores, never with ids or postings, so
+ * a shard can be an engine in the same JVM (LocalShard) or a stub that forwards calls to an
+ * engine in another process. Such a stub should report a failure to reach its engine with an
+ * UncheckedIOException.
+ */
+public interface SearchShard {
+
+    /**
+     * Loads noise words, as LittleSearchEngine.loadNoiseWords does.
+     *
+     * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+     * @throws FileNotFoundException If the noise words file is not found
+     */
+    void loadNoiseWords(String noiseWordsFile) throws FileNotFoundException;
+
+    /**
+     * Adds a document, or updates it if it is already in this shard.
+     *
+     * @param docFile Name of the document file to be added
+     * @throws FileNotFoundException If the document file is not found
+     */
+    void addDocument(String docFile) throws FileNotFoundException;
+
+    /**
+     * Removes a document.
+     *
+     * @param docFile Name of the document file to be removed
+     * @return True if the document was in this shard, false otherwise
+     */
+    boolean removeDocument(String docFile);
+
+    /**
+     * Sets the ranking of searches.
+     *
+     * @param scorer Scorer of keyword occurrences
+     */
+    void setScorer(Scorer scorer);
+
+    /**
+     * Finds the top documents of this shard, as LittleSearchEngine.scoredSearch does, along with
+     * every other document whose score equals that of the kth, which a search over all shards
+     * may rank before the kth since it orders documents with equal scores by name.
+     *
+     * @param keywords Keywords to search for, at most 64 distinct ones if matchAll is true
+     * @param k        Number of documents in the result, not counting documents tied with the kth
+     * @param matchAll True if all keywords must occur in a document, false if any one will do
+     * @return Matching documents with their scores, in descending order of scores; empty if
+     * there are no matches
+     */
+    ArrayList<ScoredDocument> search(List<String> keywords, int k, boolean matchAll);
+
+    /**
+     * Returns the number of documents in this shard.
+     *
+     * @return Number of documents
+     */
+    int documentCount();
+}
@@ -0,0 +1,572 @@
+package lse;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class indexes documents in batches, each into a segment of its own: postings for the
+ * keywords of the batch only, built in one pass by sorting, and never changed afterwards. No
+ * document is ever inserted into a long postings list, so adding documents costs the same
+ * whatever the size of the index, even for keywords that occur in most documents.
+ * <p>
+ * As segments pile up, a background compaction thread merges runs of adjacent segments into one:
+ * the postings of each keyword, already in descending order of frequencies in every segment, are
+ * merged k ways by always taking the best head, so a merge costs one pass over the pairs it
+ * writes. Removed documents are only marked as deleted, skipped by searches, and dropped for good
+ * when the segment holding them is merged. Runs are picked by smallest total size, so small new
+ * segments are merged together first, and each pair is merged a logarithmic number of times.
+ * <p>
+ * Documents get ascending ids in the order they are added, and segments hold ranges of ids in
+ * ascending order. Within a segment, and in the merged postings, documents with the same frequency
+ * of a keyword are in ascending order of ids; this differs from LittleSearchEngine, whose
+ * insertLastOccurrence binary search puts a new occurrence anywhere in its run of equal
+ * frequencies. Searches rank documents by the sum of keyword frequencies, as Scorer.FREQUENCY
+ * does, and return the same totals as LittleSearchEngine.scoredSearch over the same documents.
+ * <p>
+ * Like LittleSearchEngine, an instance must not be used by several threads at once. The
+ * compaction thread only reads segments, which never change, and locks the instance just long
+ * enough to swap a merged segment in for the ones it replaces.
+ */
+public class SegmentedIndex implements AutoCloseable {
+
+    /**
+     * Default number of segments above which segments are merged.
+     */
+    public static final int DEFAULT_MERGE_FACTOR = 8;
+
+    /**
+     * Postings of the documents with ids firstDocument..endDocument-1. Never changed once built.
+     */
+    static class Segment {
+        final int firstDocument;
+        final int endDocument;
+        final HashMap<String, Postings> postings;
+        final long pairCount;
+
+        Segment(int firstDocument, int endDocument, HashMap<String, Postings> postings) {
+            this.firstDocument = firstDocument;
+            this.endDocument = endDocument;
+            this.postings = postings;
+            long pairs = 0;
+            for (Postings keywordPostings : postings.values()) {
+                pairs += keywordPostings.size();
+            }
+            this.pairCount = pairs;
+        }
+    }
+
+    /**
+     * Pairs of a keyword in a batch, in the order they are added.
+     */
+    private static class PairList {
+        int[] pairs = new int[8];
+        int size;
+
+        void add(int document, int frequency) {
+            if (2 * size == pairs.length) pairs = Arrays.copyOf(pairs, pairs.length * 2);
+            pairs[2 * size] = document;
+            pairs[2 * size + 1] = frequency;
+            size++;
+        }
+    }
+
+    /**
+     * A document id and its score in a search.
+     */
+    private static class ScoredId {
+        final int document;
+        final float score;
+
+        ScoredId(int document, float score) {
+            this.document = document;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Scans documents; holds the noise words, and no documents.
+     */
+    private final LittleSearchEngine keywordEngine = new LittleSearchEngine();
+
+    private final int mergeFactor;
+
+    /**
+     * Segments in ascending order of document ids. Only the compaction thread removes segments,
+     * and only the owner thread adds them, at the end.
+     */
+    private final ArrayList<Segment> segments = new ArrayList<>();
+
+    /**
+     * Document names by id, ids of indexed documents by name, and ids of removed documents that
+     * are still in a segment: a merge drops them, and clears their bits.
+     */
+    private final ArrayList<String> names = new ArrayList<>();
+    private final HashMap<String, Integer> ids = new HashMap<>();
+    private final BitSet deleted = new BitSet();
+
+    /**
+     * Normalization factor of every document for TopKSearch, all 1 since the ranking is on plain
+     * frequencies. Grown as ids are assigned.
+     */
+    private float[] norms = new float[0];
+
+    private final ExecutorService compactor;
+    private boolean compacting;
+    private boolean closed;
+    private long mergeCount;
+
+    /**
+     * Initializes an empty index, merging segments when there are more than
+     * DEFAULT_MERGE_FACTOR of them.
+     */
+    public SegmentedIndex() {
+        this(DEFAULT_MERGE_FACTOR);
+    }
+
+    /**
+     * Initializes an empty index.
+     *
+     * @param mergeFactor Number of segments above which segments are merged, and number of
+     *                    segments merged at a time; at least 2
+     */
+    public SegmentedIndex(int mergeFactor) {
+        if (mergeFactor < 2) throw new IllegalArgumentException("mergeFactor must be at least 2: " + mergeFactor);
+        this.mergeFactor = mergeFactor;
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "segment-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Loads noise words, before any document is added.
+     *
+     * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+     * @throws FileNotFoundException If the noise words file is not found on disk
+     */
+    public synchronized void loadNoiseWords(String noiseWordsFile) throws FileNotFoundException {
+        keywordEngine.loadNoiseWords(noiseWordsFile);
+    }
+
+    /**
+     * Indexes all the input documents, batchSize documents per segment.
+     *
+     * @param docsFile       Name of file that has a list of all the document file names, one name per line
+     * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+     * @param batchSize      Number of documents per segment
+     * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+     */
+    public void makeIndex(String docsFile, String noiseWordsFile, int batchSize) throws FileNotFoundException {
+        if (batchSize < 1) throw new IllegalArgumentException("batchSize must be at least 1: " + batchSize);
+        loadNoiseWords(noiseWordsFile);
+
+        ArrayList<String> batch = new ArrayList<>();
+        try (Scanner sc = new Scanner(new File(docsFile))) {
+            while (sc.hasNext()) {
+                batch.add(sc.next());
+                if (batch.size() == batchSize) {
+                    addDocuments(batch);
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) addDocuments(batch);
+    }
+
+    /**
+     * Adds a batch of documents as a new segment. Documents that are already indexed are
+     * replaced: the old copy is marked as deleted.
+     *
+     * @param docFiles Names of the document files to be added
+     * @throws FileNotFoundException If a document file is not found on disk, in which case no
+     *                               document of the batch is added
+     * @throws IllegalStateException If the index is closed
+     */
+    public synchronized void addDocuments(List<String> docFiles) throws FileNotFoundException {
+        if (closed) throw new IllegalStateException("Index is closed");
+        ArrayList<HashMap<String, Occurrence>> scanned = new ArrayList<>();
+        ArrayList<String> batchNames = new ArrayList<>();
+        for (String docFile : new LinkedHashSet<>(docFiles)) {
+            scanned.add(keywordEngine.scanDocument(docFile, new FileReader(docFile), false).keywords);
+            batchNames.add(docFile);
+        }
+        if (scanned.isEmpty()) return;
+
+        int firstDocument = names.size();
+        for (String docFile : batchNames) {
+            Integer old = ids.put(docFile, names.size());
+            if (old != null) deleted.set(old);
+            names.add(docFile);
+        }
+        if (norms.length < names.size()) {
+            norms = new float[Math.max(names.size(), norms.length * 2)];
+            Arrays.fill(norms, 1);
+        }
+
+        segments.add(build(firstDocument, scanned));
+        startCompaction();
+    }
+
+    /**
+     * Removes a document. It is skipped by searches from now on, and its postings are dropped
+     * when its segment is merged.
+     *
+     * @param docFile Name of the document file to be removed
+     * @return True if the document was indexed, false otherwise
+     */
+    public synchronized boolean removeDocument(String docFile) {
+        Integer id = ids.remove(docFile);
+        if (id == null) return false;
+        deleted.set(id);
+        return true;
+    }
+
+    /**
+     * Returns the number of indexed documents.
+     *
+     * @return Number of documents
+     */
+    public synchronized int documentCount() {
+        return ids.size();
+    }
+
+    /**
+     * Returns the number of segments.
+     *
+     * @return Number of segments
+     */
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Returns the number of merges done so far.
+     *
+     * @return Number of merges
+     */
+    public synchronized long mergeCount() {
+        return mergeCount;
+    }
+
+    /**
+     * Waits until the compaction thread has no merge left to do.
+     *
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public synchronized void waitForMerges() throws InterruptedException {
+        while (compacting) {
+            wait();
+        }
+    }
+
+    /**
+     * Merges all segments into one, on the calling thread, once background merges are done.
+     * The merged segment holds no deleted document.
+     *
+     * @throws InterruptedException If interrupted while waiting for background merges
+     */
+    public synchronized void forceMerge() throws InterruptedException {
+        waitForMerges();
+        if (segments.isEmpty() || (segments.size() == 1 && !hasDeleted(segments.get(0)))) return;
+
+        Segment merged = merge(new ArrayList<>(segments), deleted);
+        segments.clear();
+        segments.add(merged);
+        deleted.clear();
+        mergeCount++;
+    }
+
+    /**
+     * Search result for "kw1 or kw2 or ..." (matchAll false) or "kw1 and kw2 and ..." (matchAll
+     * true), ranked on the sum of keyword frequencies. See LittleSearchEngine.topKSearch.
+     *
+     * @param keywords Keywords to search for, at most 64 distinct ones
+     * @param k        Maximum number of documents in the result
+     * @param matchAll True if all keywords must occur in a document, false if any one will do
+     * @return List of matching documents, arranged in descending order of total frequencies.
+     * If there are no matches, returns null.
+     */
+    public ArrayList<String> topKSearch(List<String> keywords, int k, boolean matchAll) {
+        ArrayList<ScoredDocument> scored = scoredSearch(keywords, k, matchAll);
+        if (scored == null) return null;
+
+        ArrayList<String> resultList = new ArrayList<>();
+        for (ScoredDocument document : scored) {
+            resultList.add(document.document);
+        }
+        return resultList;
+    }
+
+    /**
+     * Same as topKSearch(keywords, k, matchAll), but returns the total frequency of each document
+     * along with its name. Keywords are analyzed as in LittleSearchEngine.topKSearch.
+     *
+     * @param keywords Keywords to search for, at most 64 distinct ones
+     * @param k        Maximum number of documents in the result
+     * @param matchAll True if all keywords must occur in a document, false if any one will do
+     * @return List of matching documents with their scores, arranged in descending order of
+     * scores. If there are no matches, returns null.
+     */
+    public synchronized ArrayList<ScoredDocument> scoredSearch(List<String> keywords, int k, boolean matchAll) {
+        if (k < 1) throw new IllegalArgumentException("k must be at least 1: " + k);
+
+        List<String> queryKeywords = keywordEngine.queryKeywords(keywords);
+
+        // every document is in exactly one segment, so its total is found by searching that
+        // segment alone, and the top k overall are among the top k of the segments
+        ArrayList<ScoredId> hits = new ArrayList<>();
+        for (Segment segment : segments) {
+            Postings[] postings = segmentPostings(segment, queryKeywords, matchAll);
+            if (postings == null) continue;
+
+            float[] idfs = new float[postings.length];
+            for (int j = 0; j < idfs.length; j++) {
+                idfs[j] = Scorer.FREQUENCY.idf(postings[j].size(), names.size());
+            }
+            // deleted documents may take places in the segment's top k, so as many more are asked for
+            int segmentK = k + deleted.get(segment.firstDocument, segment.endDocument).cardinality();
+            int segmentSize = segment.endDocument - segment.firstDocument;
+            float[] segmentScores = new float[Math.min(segmentK, segmentSize)];
+            int[] top = TopKSearch.search(postings, idfs, norms, 1, Scorer.FREQUENCY,
+                    Math.min(segmentK, segmentSize), matchAll, segmentScores);
+            for (int i = 0; i < top.length; i++) {
+                if (!deleted.get(top[i])) hits.add(new ScoredId(top[i], segmentScores[i]));
+            }
+        }
+        if (hits.isEmpty()) return null;
+
+        hits.sort((h1, h2) -> h1.score != h2.score
+                ? Float.compare(h2.score, h1.score)
+                : Integer.compare(h1.document, h2.document));
+        ArrayList<ScoredDocument> resultList = new ArrayList<>();
+        for (int i = 0; i < Math.min(k, hits.size()); i++) {
+            resultList.add(new ScoredDocument(names.get(hits.get(i).document), hits.get(i).score));
+        }
+        return resultList;
+    }
+
+    /**
+     * Stops the compaction thread. A merge in progress is abandoned, and the index keeps the
+     * segments it had. The index can still be searched, but no document can be added.
+     */
+    public synchronized void close() {
+        closed = true;
+        if (!compactor.shutdownNow().isEmpty()) {
+            // the compaction never started, so it will not clear the flag itself
+            compacting = false;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Postings of the distinct keywords in a segment, null if none occurs in it, or if matchAll
+     * and one of them does not.
+     */
+    private static Postings[] segmentPostings(Segment segment, List<String> keywords, boolean matchAll) {
+        ArrayList<Postings> postings = new ArrayList<>();
+        for (String keyword : new LinkedHashSet<>(keywords)) {
+            Postings keywordPostings = segment.postings.get(keyword);
+            if (keywordPostings != null) {
+                postings.add(keywordPostings);
+            } else if (matchAll) {
+                return null;
+            }
+        }
+        return postings.isEmpty() ? null : postings.toArray(new Postings[0]);
+    }
+
+    private boolean hasDeleted(Segment segment) {
+        int next = deleted.nextSetBit(segment.firstDocument);
+        return next >= 0 && next < segment.endDocument;
+    }
+
+    /**
+     * Starts the compaction thread if there are too many segments and it is not running.
+     */
+    private void startCompaction() {
+        if (compacting || segments.size() <= mergeFactor) return;
+        compacting = true;
+        compactor.execute(this::compact);
+    }
+
+    /**
+     * Body of the compaction thread: merges runs of segments until there are few enough.
+     */
+    private void compact() {
+        boolean done = false;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                List<Segment> run;
+                BitSet deletedNow;
+                synchronized (this) {
+                    if (segments.size() <= mergeFactor) {
+                        // cleared under the same lock as the check, so that a batch added
+                        // from now on starts a new compaction
+                        compacting = false;
+                        notifyAll();
+                        done = true;
+                        return;
+                    }
+                    int first = smallestRun();
+                    run = new ArrayList<>(segments.subList(first, first + mergeFactor));
+                    deletedNow = (BitSet) deleted.clone();
+                }
+
+                Segment merged = merge(run, deletedNow);
+
+                synchronized (this) {
+                    // segments are only added at the end meanwhile, so the run is still in place
+                    int first = segments.indexOf(run.get(0));
+                    segments.subList(first, first + run.size()).clear();
+                    segments.add(first, merged);
+                    clearDropped(merged, deletedNow);
+                    mergeCount++;
+                }
+            }
+        } finally {
+            if (!done) {
+                synchronized (this) {
+                    compacting = false;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Clears the deleted bits of the documents that a merge into a segment has dropped, so they
+     * are no longer counted by searches of the segment. Documents removed during the merge are
+     * still in the segment, and keep theirs.
+     */
+    private void clearDropped(Segment merged, BitSet dropped) {
+        for (int d = dropped.nextSetBit(merged.firstDocument); d >= 0 && d < merged.endDocument;
+             d = dropped.nextSetBit(d + 1)) {
+            deleted.clear(d);
+        }
+    }
+
+    /**
+     * Index of the first of the mergeFactor adjacent segments with the fewest pairs in total.
+     */
+    private int smallestRun() {
+        int best = 0;
+        long bestPairs = Long.MAX_VALUE;
+        for (int s = 0; s + mergeFactor <= segments.size(); s++) {
+            long pairs = 0;
+            for (int t = s; t < s + mergeFactor; t++) {
+                pairs += segments.get(t).pairCount;
+            }
+            if (pairs < bestPairs) {
+                best = s;
+                bestPairs = pairs;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Builds the segment of a batch of scanned documents, with ids from firstDocument on. The pairs
+     * of each keyword are collected in ascending order of ids, then sorted on descending
+     * frequencies, keeping ids in ascending order within equal frequencies.
+     */
+    static Segment build(int firstDocument, List<HashMap<String, Occurrence>> documents) {
+        HashMap<String, PairList> byKeyword = new HashMap<>();
+        for (int d = 0; d < documents.size(); d++) {
+            for (Map.Entry<String, Occurrence> entry : documents.get(d).entrySet()) {
+                byKeyword.computeIfAbsent(entry.getKey(), keyword -> new PairList())
+                        .add(firstDocument + d, entry.getValue().frequency);
+            }
+        }
+
+        HashMap<String, Postings> postings = new HashMap<>(2 * byKeyword.size());
+        for (Map.Entry<String, PairList> entry : byKeyword.entrySet()) {
+            PairList list = entry.getValue();
+            long[] keys = new long[list.size];
+            for (int i = 0; i < list.size; i++) {
+                keys[i] = ((long) (Integer.MAX_VALUE - list.pairs[2 * i + 1]) << 32) | list.pairs[2 * i];
+            }
+            Arrays.sort(keys);
+            for (int i = 0; i < list.size; i++) {
+                list.pairs[2 * i] = (int) keys[i];
+                list.pairs[2 * i + 1] = Integer.MAX_VALUE - (int) (keys[i] >>> 32);
+            }
+            postings.put(entry.getKey(), new Postings(list.pairs, list.size));
+        }
+        return new Segment(firstDocument, firstDocument + documents.size(), postings);
+    }
+
+    /**
+     * Merges adjacent segments into one, leaving out deleted documents.
+     */
+    static Segment merge(List<Segment> run, BitSet deleted) {
+        HashSet<String> keywords = new HashSet<>();
+        for (Segment segment : run) {
+            keywords.addAll(segment.postings.keySet());
+        }
+
+        HashMap<String, Postings> postings = new HashMap<>(2 * keywords.size());
+        ArrayList<Postings> lists = new ArrayList<>();
+        for (String keyword : keywords) {
+            lists.clear();
+            for (Segment segment : run) {
+                Postings keywordPostings = segment.postings.get(keyword);
+                if (keywordPostings != null) lists.add(keywordPostings);
+            }
+            Postings merged = mergePostings(lists, deleted);
+            if (merged.size() > 0) postings.put(keyword, merged);
+        }
+        return new Segment(run.get(0).firstDocument, run.get(run.size() - 1).endDocument, postings);
+    }
+
+    /**
+     * K-way merge of postings in descending order of frequencies: a heap holds the head of every
+     * list, and the best head is moved to the output until all lists are used up. Equal
+     * frequencies are taken in ascending order of ids.
+     */
+    static Postings mergePostings(List<Postings> lists, BitSet deleted) {
+        int total = 0;
+        for (Postings list : lists) {
+            total += list.size();
+        }
+
+        // heads as (frequency, document, list, position), so comparisons do not read the lists
+        PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(1, lists.size()), (h1, h2) ->
+                h1[0] != h2[0] ? Integer.compare(h2[0], h1[0]) : Integer.compare(h1[1], h2[1]));
+        for (int l = 0; l < lists.size(); l++) {
+            Postings list = lists.get(l);
+            if (list.size() > 0) heads.add(new int[]{list.frequency(0), list.document(0), l, 0});
+        }
+
+        int[] pairs = new int[2 * total];
+        int size = 0;
+        while (!heads.isEmpty()) {
+            int[] head = heads.remove();
+            if (!deleted.get(head[1])) {
+                pairs[2 * size] = head[1];
+                pairs[2 * size + 1] = head[0];
+                size++;
+            }
+            Postings list = lists.get(head[2]);
+            if (++head[3] < list.size()) {
+                head[0] = list.frequency(head[3]);
+                head[1] = list.document(head[3]);
+                heads.add(head);
+            }
+        }
+        return new Postings(pairs, size);
+    }
+}
@@ -0,0 +1,287 @@
+package lse;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class partitions documents across several shards, each a complete search engine over its
+ * own documents, so that no single index has to hold all of them. A document always goes to the
+ * shard picked by the hash of its name, so it can be removed or updated without knowing where it
+ * was put. A search is sent to every shard at once (scatter), each shard returns its own top k
+ * documents with their scores, and the k best of those are the result (gather). Each shard also
+ * returns the documents tied with its kth, so that ties can be broken by name across shards.
+ * <p>
+ * Each shard scores documents with the statistics of its own documents (number of documents
+ * containing a keyword, average length). With documents spread by hash these are close to the
+ * statistics of the whole collection, so rankings by Scorer.tfIdf() or Scorer.bm25() are close to
+ * those of a single engine; rankings by Scorer.FREQUENCY do not depend on statistics and are the
+ * same, except for the order of documents with equal totals.
+ * <p>
+ * Like LittleSearchEngine, an instance must not be used by several threads at once.
+ */
+public class ShardedSearchEngine implements AutoCloseable {
+
+    private final SearchShard[] shards;
+
+    private final ExecutorService pool;
+
+    /**
+     * Initializes an engine with a number of empty in-process shards.
+     *
+     * @param shardCount Number of shards
+     */
+    public ShardedSearchEngine(int shardCount) {
+        this(localShards(shardCount));
+    }
+
+    /**
+     * Initializes an engine over the given shards, which may be in this process or not.
+     *
+     * @param shards Shards, at least one
+     */
+    public ShardedSearchEngine(SearchShard[] shards) {
+        if (shards.length < 1) throw new IllegalArgumentException("At least one shard is needed");
+        this.shards = shards.clone();
+        this.pool = Executors.newFixedThreadPool(shards.length, runnable -> {
+            Thread thread = new Thread(runnable, "shard-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static SearchShard[] localShards(int shardCount) {
+        if (shardCount < 1) throw new IllegalArgumentException("shardCount must be at least 1: " + shardCount);
+        SearchShard[] shards = new SearchShard[shardCount];
+        for (int s = 0; s < shardCount; s++) {
+            shards[s] = new LocalShard();
+        }
+        return shards;
+    }
+
+    /**
+     * Returns the number of shards.
+     *
+     * @return Number of shards
+     */
+    public int shardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Returns the shard a document belongs to.
+     *
+     * @param docFile Document name
+     * @return Shard index, 0..shardCount()-1
+     */
+    public int shardOf(String docFile) {
+        return Math.floorMod(docFile.hashCode(), shards.length);
+    }
+
+    /**
+     * Indexes all the input documents, as LittleSearchEngine.makeIndex does. Noise words are
+     * loaded into every shard, then each shard indexes its own documents, all shards at the same
+     * time. Documents are added to a shard in the order they are listed in docsFile.
+     *
+     * @param docsFile       Name of file that has a list of all the document file names, one name per line
+     * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+     * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+     */
+    public void makeIndex(String docsFile, String noiseWordsFile) throws FileNotFoundException {
+        ArrayList<ArrayList<String>> docsByShard = new ArrayList<>();
+        for (int s = 0; s < shards.length; s++) {
+            docsByShard.add(new ArrayList<>());
+        }
+        try (Scanner sc = new Scanner(new File(docsFile))) {
+            while (sc.hasNext()) {
+                String docFile = sc.next();
+                docsByShard.get(shardOf(docFile)).add(docFile);
+            }
+        }
+
+        ArrayList<Callable<Void>> tasks = new ArrayList<>();
+        for (int s = 0; s < shards.length; s++) {
+            SearchShard shard = shards[s];
+            ArrayList<String> docFiles = docsByShard.get(s);
+            tasks.add(() -> {
+                shard.loadNoiseWords(noiseWordsFile);
+                for (String docFile : docFiles) {
+                    shard.addDocument(docFile);
+                }
+                return null;
+            });
+        }
+        invokeAll(tasks);
+    }
+
+    /**
+     * Loads noise words into every shard, before adding documents one at a time with addDocument.
+     *
+     * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+     * @throws FileNotFoundException If the noise words file is not found on disk
+     */
+    public void loadNoiseWords(String noiseWordsFile) throws FileNotFoundException {
+        for (SearchShard shard : shards) {
+            shard.loadNoiseWords(noiseWordsFile);
+        }
+    }
+
+    /**
+     * Adds a document to its shard, or updates it if it is already indexed.
+     *
+     * @param docFile Name of the document file to be added
+     * @throws FileNotFoundException If the document file is not found on disk
+     */
+    public void addDocument(String docFile) throws FileNotFoundException {
+        shards[shardOf(docFile)].addDocument(docFile);
+    }
+
+    /**
+     * Removes a document from its shard.
+     *
+     * @param docFile Name of the document file to be removed
+     * @return True if the document was indexed, false otherwise
+     */
+    public boolean removeDocument(String docFile) {
+        return shards[shardOf(docFile)].removeDocument(docFile);
+    }
+
+    /**
+     * Sets the ranking used by every shard.
+     *
+     * @param scorer Scorer of keyword occurrences
+     */
+    public void setScorer(Scorer scorer) {
+        for (SearchShard shard : shards) {
+            shard.setScorer(scorer);
+        }
+    }
+
+    /**
+     * Returns the number of documents in all shards.
+     *
+     * @return Number of documents
+     */
+    public int documentCount() {
+        int count = 0;
+        for (SearchShard shard : shards) {
+            count += shard.documentCount();
+        }
+        return count;
+    }
+
+    /**
+     * Search result for "kw1 or kw2 or ..." (matchAll false) or "kw1 and kw2 and ..." (matchAll
+     * true), over the documents of all shards. See LittleSearchEngine.topKSearch.
+     *
+     * @param keywords Keywords to search for, at most 64 distinct ones if matchAll is true
+     * @param k        Maximum number of documents in the result
+     * @param matchAll True if all keywords must occur in a document, false if any one will do
+     * @return List of matching documents, arranged in descending order of scores; documents with
+     * equal scores are in alphabetical order. If there are no matches, returns null.
+     */
+    public ArrayList<String> topKSearch(List<String> keywords, int k, boolean matchAll) {
+        ArrayList<ScoredDocument> scored = scoredSearch(keywords, k, matchAll);
+        if (scored == null) return null;
+
+        ArrayList<String> resultList = new ArrayList<>();
+        for (ScoredDocument document : scored) {
+            resultList.add(document.document);
+        }
+        return resultList;
+    }
+
+    /**
+     * Same as topKSearch(keywords, k, matchAll), but returns the score of each document along
+     * with its name.
+     *
+     * @param keywords Keywords to search for, at most 64 distinct ones if matchAll is true
+     * @param k        Maximum number of documents in the result
+     * @param matchAll True if all keywords must occur in a document, false if any one will do
+     * @return List of matching documents with their scores, arranged in descending order of
+     * scores; documents with equal scores are in alphabetical order. If there are no matches,
+     * returns null.
+     */
+    public ArrayList<ScoredDocument> scoredSearch(List<String> keywords, int k, boolean matchAll) {
+        if (k < 1) throw new IllegalArgumentException("k must be at least 1: " + k);
+
+        ArrayList<Callable<ArrayList<ScoredDocument>>> tasks = new ArrayList<>();
+        for (SearchShard shard : shards) {
+            tasks.add(() -> shard.search(keywords, k, matchAll));
+        }
+
+        ArrayList<ArrayList<ScoredDocument>> shardResults;
+        try {
+            shardResults = invokeAll(tasks);
+        } catch (FileNotFoundException e) {
+            // searches do not read files
+            throw new UncheckedIOException(e);
+        }
+
+        // each shard's list is sorted, and holds every document that may make the k best overall,
+        // so those are found by repeatedly taking the best head of the lists, kept as (shard,
+        // index in list) pairs; within a list, tied documents are in id order, not by name, so
+        // ties are ordered by name here
+        for (ArrayList<ScoredDocument> shardResult : shardResults) {
+            shardResult.sort((d1, d2) -> d1.score != d2.score
+                    ? Float.compare(d2.score, d1.score)
+                    : d1.document.compareTo(d2.document));
+        }
+        PriorityQueue<int[]> heads = new PriorityQueue<>(shards.length, (h1, h2) -> {
+            ScoredDocument d1 = shardResults.get(h1[0]).get(h1[1]);
+            ScoredDocument d2 = shardResults.get(h2[0]).get(h2[1]);
+            return d1.score != d2.score
+                    ? Float.compare(d2.score, d1.score)
+                    : d1.document.compareTo(d2.document);
+        });
+        for (int s = 0; s < shardResults.size(); s++) {
+            if (!shardResults.get(s).isEmpty()) heads.add(new int[]{s, 0});
+        }
+
+        ArrayList<ScoredDocument> resultList = new ArrayList<>();
+        while (resultList.size() < k && !heads.isEmpty()) {
+            int[] head = heads.remove();
+            ArrayList<ScoredDocument> shardResult = shardResults.get(head[0]);
+            resultList.add(shardResult.get(head[1]));
+            if (++head[1] < shardResult.size()) heads.add(head);
+        }
+        return resultList.isEmpty() ? null : resultList;
+    }
+
+    /**
+     * Stops the threads that send requests to the shards.
+     */
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Runs tasks on all shards at once, and waits for all of them to finish.
+     */
+    private <T> ArrayList<T> invokeAll(List<Callable<T>> tasks) throws FileNotFoundException {
+        ArrayList<T> results = new ArrayList<>();
+        try {
+            for (Future<T> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for shards", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof FileNotFoundException) throw (FileNotFoundException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        }
+        return results;
+    }
+}
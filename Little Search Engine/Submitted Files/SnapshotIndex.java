@@ -0,0 +1,199 @@
+package lse;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class keeps answering queries while the index is rebuilt or changed. Queries run against
+ * the published version of the index: a LittleSearchEngine that has been frozen, so it never
+ * changes again and may be searched by any number of threads at once. Changes are made to the
+ * next version, which no query can see: either a new engine built from scratch by reindex, or a
+ * copy of the published engine changed by update. The next version is then frozen and published
+ * with a single volatile write. A query reads the published version once and sees it throughout,
+ * never a change half applied; queries take no lock, and are never held up by indexing.
+ * <p>
+ * Writers take a lock, so changes from several threads are applied one at a time, each to the
+ * version published by the one before. update copies the whole index (compressed postings blocks
+ * are shared rather than copied), so changes are best applied in batches. Once a version is
+ * replaced, it is freed when the last query still running on it is done.
+ * <p>
+ * All versions built here record their work in the same metrics.
+ */
+public class SnapshotIndex {
+
+    /**
+     * A change to the index, applied to a writable copy of the published version.
+     */
+    public interface Change {
+        /**
+         * Applies the change.
+         *
+         * @param next Engine to change, not yet visible to queries
+         * @throws FileNotFoundException If a document or noise words file is not found on disk
+         */
+        void apply(LittleSearchEngine next) throws FileNotFoundException;
+    }
+
+    /**
+     * A published engine and its version number.
+     */
+    private static class Version {
+        final LittleSearchEngine engine;
+        final long number;
+
+        Version(LittleSearchEngine engine, long number) {
+            this.engine = engine;
+            this.number = number;
+        }
+    }
+
+    private final SearchMetrics metrics = new SearchMetrics();
+
+    private final Object writeLock = new Object();
+
+    private volatile Version published;
+
+    /**
+     * Initializes an index whose first version is empty.
+     */
+    public SnapshotIndex() {
+        LittleSearchEngine empty = new LittleSearchEngine(metrics);
+        empty.freeze();
+        published = new Version(empty, 0);
+    }
+
+    /**
+     * Returns the published version. It never changes, so several queries run on it see the
+     * same index even if a new version is published meanwhile.
+     *
+     * @return Frozen engine
+     */
+    public LittleSearchEngine current() {
+        return published.engine;
+    }
+
+    /**
+     * Returns the number of the published version, 0 for the first, one more for each version
+     * published after it.
+     *
+     * @return Version number
+     */
+    public long version() {
+        return published.number;
+    }
+
+    /**
+     * Returns the metrics that all versions built here record their work in.
+     *
+     * @return Metrics
+     */
+    public SearchMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Builds a new index of all the input documents, as LittleSearchEngine.makeIndex does, and
+     * publishes it. The scorer, the analyzer and the indexing of positions are those of the
+     * published version.
+     * Queries go on running against the published version until the new one is complete.
+     *
+     * @param docsFile       Name of file that has a list of all the document file names, one name per line
+     * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+     * @throws FileNotFoundException If there is a problem locating any of the input files on disk,
+     *                               in which case the published version is kept
+     */
+    public void reindex(String docsFile, String noiseWordsFile) throws FileNotFoundException {
+        synchronized (writeLock) {
+            LittleSearchEngine current = published.engine;
+            LittleSearchEngine next = new LittleSearchEngine(metrics);
+            next.setPositionsIndexed(current.positionsIndexed());
+            next.setScorer(current.scorer);
+            next.setAnalyzer(current.analyzer);
+            next.makeIndex(docsFile, noiseWordsFile);
+            publish(next);
+        }
+    }
+
+    /**
+     * Applies a change to a copy of the published version, and publishes the copy. For instance
+     * <pre>
+     *     index.update(next -&gt; {
+     *         next.addDocument("new.txt");
+     *         next.removeDocument("old.txt");
+     *     });
+     * </pre>
+     * publishes both changes at once.
+     *
+     * @param change Change to apply
+     * @throws FileNotFoundException If the change does not find a file on disk, in which case
+     *                               the published version is kept
+     */
+    public void update(Change change) throws FileNotFoundException {
+        synchronized (writeLock) {
+            LittleSearchEngine next = published.engine.copy();
+            change.apply(next);
+            publish(next);
+        }
+    }
+
+    /**
+     * Publishes an engine built elsewhere, for instance one opened from an index file. It is
+     * frozen first, and must not be changed by its owner afterwards.
+     *
+     * @param next Engine to publish
+     */
+    public void publish(LittleSearchEngine next) {
+        synchronized (writeLock) {
+            if (!next.isFrozen()) next.freeze();
+            published = new Version(next, published.number + 1);
+        }
+    }
+
+    /**
+     * Runs LittleSearchEngine.top5search on the published version.
+     *
+     * @param kw1 First keyword
+     * @param kw2 Second keyword
+     * @return List of documents in which either kw1 or kw2 occurs, null if there are no matches
+     */
+    public ArrayList<String> top5search(String kw1, String kw2) {
+        return current().top5search(kw1, kw2);
+    }
+
+    /**
+     * Runs LittleSearchEngine.topKSearch on the published version.
+     *
+     * @param keywords Keywords to search for, at most 64 distinct ones
+     * @param k        Maximum number of documents in the result
+     * @param matchAll True if all keywords must occur in a document, false if any one will do
+     * @return List of matching documents, null if there are no matches
+     */
+    public ArrayList<String> topKSearch(List<String> keywords, int k, boolean matchAll) {
+        return current().topKSearch(keywords, k, matchAll);
+    }
+
+    /**
+     * Runs LittleSearchEngine.scoredSearch on the published version.
+     *
+     * @param keywords Keywords to search for, at most 64 distinct ones
+     * @param k        Maximum number of documents in the result
+     * @param matchAll True if all keywords must occur in a document, false if any one will do
+     * @return List of matching documents with their scores, null if there are no matches
+     */
+    public ArrayList<ScoredDocument> scoredSearch(List<String> keywords, int k, boolean matchAll) {
+        return current().scoredSearch(keywords, k, matchAll);
+    }
+
+    /**
+     * Runs LittleSearchEngine.booleanSearch on the published version.
+     *
+     * @param query Boolean query
+     * @param k     Maximum number of documents in the result
+     * @return List of matching documents, null if there are no matches
+     * @throws IllegalArgumentException If the query is not well formed
+     */
+    public ArrayList<String> booleanSearch(String query, int k) {
+        return current().booleanSearch(query, k);
+    }
+}
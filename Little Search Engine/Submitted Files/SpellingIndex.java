@@ -0,0 +1,212 @@
+package lse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * This class finds the keywords of an index that are within a small edit distance of a word,
+ * to suggest corrections for misspelled query words. The edit distance is the Levenshtein
+ * distance: the least number of letters to insert, delete or replace to turn one word into the
+ * other.
+ * <p>
+ * Keywords are found with a deletion index (as in SymSpell): every string obtained by deleting
+ * up to MAX_DISTANCE letters from a keyword is indexed, and the candidates for a word are the
+ * keywords that share one of these strings with the word. If two words are within distance d,
+ * deleting at most d letters from each gives the same string, so no keyword within the distance
+ * is missed, and only a few dozen lookups are needed whatever the number of keywords. Candidates
+ * are then checked by computing their distance to the word.
+ * <p>
+ * To keep the index small, deletions are made from the first PREFIX_LENGTH letters of keywords
+ * only, and the deleted strings are not stored: each is reduced to a hash, packed with the
+ * number of the keyword into a single long, and the longs are kept in one sorted array, searched
+ * by binary search. A hash collision only adds a candidate, which the distance check then
+ * rejects. For a keyword of 7 or more letters, 29 longs are stored.
+ * <p>
+ * An index is a snapshot of a TermDictionary, whose keyword numbers it uses. It never changes
+ * once built, and may be searched by several threads at once.
+ */
+class SpellingIndex {
+
+    /**
+     * Largest edit distance searched for.
+     */
+    static final int MAX_DISTANCE = 2;
+
+    /**
+     * Number of leading letters of a keyword that deletions are made from.
+     */
+    private static final int PREFIX_LENGTH = 7;
+
+    private final TermDictionary terms;
+
+    /**
+     * Number of low bits of an entry that hold the keyword number.
+     */
+    private final int termBits;
+
+    /**
+     * Sorted entries: hash of a deleted string in the high bits, keyword number in the low
+     * termBits bits.
+     */
+    private final long[] entries;
+
+    /**
+     * Builds the index of the keywords of a dictionary.
+     *
+     * @param terms Keywords
+     */
+    SpellingIndex(TermDictionary terms) {
+        this.terms = terms;
+        this.termBits = Math.max(1, 32 - Integer.numberOfLeadingZeros(terms.size()));
+
+        long[] entries = new long[Math.max(16, terms.size() * 8)];
+        long[] hashes = new long[deletionCount(PREFIX_LENGTH)];
+        int size = 0;
+        for (int t = 0; t < terms.size(); t++) {
+            int count = deletions(terms.term(t), hashes);
+            if (size + count > entries.length) {
+                entries = Arrays.copyOf(entries, Math.max(size + count, entries.length + entries.length / 2));
+            }
+            for (int h = 0; h < count; h++) {
+                entries[size++] = (hashes[h] << termBits) | t;
+            }
+        }
+        Arrays.sort(entries, 0, size);
+
+        int unique = 0;
+        for (int e = 0; e < size; e++) {
+            if (unique == 0 || entries[e] != entries[unique - 1]) entries[unique++] = entries[e];
+        }
+        this.entries = Arrays.copyOf(entries, unique);
+    }
+
+    /**
+     * Returns the keywords within an edit distance of a word, closest first. Keywords at the same
+     * distance are in alphabetical order.
+     *
+     * @param word        Word, in lower case
+     * @param maxDistance Largest distance, at most MAX_DISTANCE
+     * @return Keywords with their distances, as {keyword number, distance} pairs
+     */
+    ArrayList<int[]> lookup(String word, int maxDistance) {
+        if (maxDistance < 0 || maxDistance > MAX_DISTANCE) {
+            throw new IllegalArgumentException("maxDistance must be 0 to " + MAX_DISTANCE + ": " + maxDistance);
+        }
+
+        long[] hashes = new long[deletionCount(PREFIX_LENGTH)];
+        int count = deletions(word, hashes);
+        BitSet checked = new BitSet();
+        int[][] rows = new int[2][word.length() + 1];
+        ArrayList<int[]> matches = new ArrayList<>();
+        long mask = (1L << termBits) - 1;
+        for (int h = 0; h < count; h++) {
+            long low = hashes[h] << termBits;
+            int e = lowerBound(low);
+            for (; e < entries.length && (entries[e] & ~mask) == low; e++) {
+                int t = (int) (entries[e] & mask);
+                if (checked.get(t)) continue;
+                checked.set(t);
+
+                int distance = distance(word, terms.term(t), maxDistance, rows);
+                if (distance <= maxDistance) matches.add(new int[]{t, distance});
+            }
+        }
+        matches.sort((m1, m2) -> m1[1] != m2[1] ? m1[1] - m2[1] : m1[0] - m2[0]);
+        return matches;
+    }
+
+    /**
+     * Number of strings made by deleting up to MAX_DISTANCE letters from a string of a length,
+     * counting a string again for every way it is made.
+     */
+    private static int deletionCount(int length) {
+        return 1 + length + length * (length - 1) / 2;
+    }
+
+    /**
+     * Hashes the strings made by deleting up to MAX_DISTANCE letters from the first PREFIX_LENGTH
+     * letters of a word, without building them.
+     *
+     * @return Number of hashes written
+     */
+    private static int deletions(String word, long[] hashes) {
+        int length = Math.min(word.length(), PREFIX_LENGTH);
+        int count = 0;
+        hashes[count++] = hash(word, length, -1, -1);
+        for (int i = 0; i < length; i++) {
+            hashes[count++] = hash(word, length, i, -1);
+            for (int j = i + 1; j < length; j++) {
+                hashes[count++] = hash(word, length, i, j);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Hashes word[0..length-1] without the letters at skip1 and skip2 (FNV-1a, then mixed so
+     * that the low bits, which are the ones kept, depend on every letter).
+     */
+    private static long hash(String word, int length, int skip1, int skip2) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            if (i == skip1 || i == skip2) continue;
+            h = (h ^ word.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= length - (skip1 >= 0 ? 1 : 0) - (skip2 >= 0 ? 1 : 0);
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    /**
+     * Index of the first entry not smaller than key.
+     */
+    private int lowerBound(long key) {
+        int e = Arrays.binarySearch(entries, key);
+        if (e < 0) return -e - 1;
+        while (e > 0 && entries[e - 1] == key) e--;
+        return e;
+    }
+
+    /**
+     * Levenshtein distance of two words, or maxDistance+1 as soon as it is known to be larger
+     * than maxDistance. Only the cells within maxDistance of the diagonal are computed.
+     *
+     * @param rows Two rows of at least a.length()+1 cells, overwritten
+     */
+    static int distance(String a, String b, int maxDistance, int[][] rows) {
+        int n = a.length();
+        int m = b.length();
+        if (Math.abs(n - m) > maxDistance) return maxDistance + 1;
+
+        int over = maxDistance + 1;
+        int[] previous = rows[0];
+        int[] current = rows[1];
+        for (int i = 0; i <= n; i++) {
+            previous[i] = Math.min(i, over);
+        }
+        for (int j = 1; j <= m; j++) {
+            int from = Math.max(1, j - maxDistance);
+            int to = Math.min(n, j + maxDistance);
+            current[0] = Math.min(j, over);
+            if (from > 1) current[from - 1] = over;
+            int smallest = current[0];
+            char c = b.charAt(j - 1);
+            for (int i = from; i <= to; i++) {
+                int cost = previous[i - 1] + (a.charAt(i - 1) == c ? 0 : 1);
+                cost = Math.min(cost, previous[i] + 1);
+                cost = Math.min(cost, current[i - 1] + 1);
+                current[i] = Math.min(cost, over);
+                smallest = Math.min(smallest, current[i]);
+            }
+            if (to < n) current[to + 1] = over;
+            if (smallest > maxDistance) return over;
+
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[n];
+    }
+}
@@ -0,0 +1,131 @@
+package lse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * This class holds the keywords of an index in sorted order, so that the keywords with a given
+ * prefix, matching a wildcard pattern, or in a range are found by binary search instead of
+ * a scan of every keyword. A dictionary is a snapshot: it does not change when keywords are added
+ * to or removed from the index, and is rebuilt instead.
+ */
+class TermDictionary {
+
+    private final String[] terms;
+
+    /**
+     * Builds a dictionary.
+     *
+     * @param terms Keywords, in any order, without duplicates
+     */
+    TermDictionary(Collection<String> terms) {
+        this.terms = terms.toArray(new String[0]);
+        Arrays.sort(this.terms);
+    }
+
+    /**
+     * Returns the number of keywords.
+     *
+     * @return Number of keywords
+     */
+    int size() {
+        return terms.length;
+    }
+
+    /**
+     * Returns a keyword by its number.
+     *
+     * @param t Number of the keyword in sorted order, 0..size()-1
+     * @return Keyword
+     */
+    String term(int t) {
+        return terms[t];
+    }
+
+    /**
+     * Returns the keywords that start with a prefix.
+     *
+     * @param prefix Prefix, may be empty
+     * @return Keywords in sorted order
+     */
+    ArrayList<String> prefix(String prefix) {
+        int from = lowerBound(prefix);
+        int to = from;
+        while (to < terms.length && terms[to].startsWith(prefix)) to++;
+        return new ArrayList<>(Arrays.asList(terms).subList(from, to));
+    }
+
+    /**
+     * Returns the keywords from one keyword to another, both included.
+     *
+     * @param from Lowest keyword
+     * @param to   Highest keyword
+     * @return Keywords in sorted order, empty if from is after to
+     */
+    ArrayList<String> range(String from, String to) {
+        ArrayList<String> matches = new ArrayList<>();
+        for (int t = lowerBound(from); t < terms.length && terms[t].compareTo(to) <= 0; t++) {
+            matches.add(terms[t]);
+        }
+        return matches;
+    }
+
+    /**
+     * Returns the keywords that match a wildcard pattern, in which '*' matches any sequence of
+     * letters (including none) and '?' matches exactly one letter. Only the keywords that start
+     * with the part of the pattern before the first wildcard are tested against the pattern.
+     *
+     * @param pattern Pattern
+     * @return Keywords in sorted order
+     */
+    ArrayList<String> wildcard(String pattern) {
+        int literal = 0;
+        while (literal < pattern.length() && !isWildcard(pattern.charAt(literal))) literal++;
+        String prefix = pattern.substring(0, literal);
+
+        ArrayList<String> matches = new ArrayList<>();
+        for (int t = lowerBound(prefix); t < terms.length && terms[t].startsWith(prefix); t++) {
+            if (matches(pattern, literal, terms[t], literal)) matches.add(terms[t]);
+        }
+        return matches;
+    }
+
+    private static boolean isWildcard(char c) {
+        return c == '*' || c == '?';
+    }
+
+    /**
+     * Index of the first keyword not smaller than key.
+     */
+    private int lowerBound(String key) {
+        int t = Arrays.binarySearch(terms, key);
+        return t >= 0 ? t : -t - 1;
+    }
+
+    /**
+     * Matches pattern[p..] against term[t..]. On a mismatch after a '*', the '*' is retried
+     * one letter further into the term, which is enough because only the last '*' ever needs
+     * to be retried.
+     */
+    private static boolean matches(String pattern, int p, String term, int t) {
+        int star = -1;
+        int starTerm = 0;
+        while (t < term.length()) {
+            if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == term.charAt(t))) {
+                p++;
+                t++;
+            } else if (p < pattern.length() && pattern.charAt(p) == '*') {
+                star = p++;
+                starTerm = t;
+            } else if (star >= 0) {
+                p = star + 1;
+                t = ++starTerm;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*') p++;
+        return p == pattern.length();
+    }
+}
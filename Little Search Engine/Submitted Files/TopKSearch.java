@@ -0,0 +1,239 @@
+package lse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * This class finds the k documents with the highest total score over a set of keywords,
+ * reading the postings of the keywords in their (descending frequency) order and stopping as
+ * soon as the top k documents are known. It uses the "no random access" variant of the threshold
+ * algorithm: for every document seen so far it keeps a lower bound on its total (the scores
+ * seen for it) and an upper bound (lower bound plus, for every postings it has not been seen in
+ * yet, the score of the current frequency in a document with the largest norm). A document never
+ * seen is bounded the same way over all postings. The search stops when k documents have lower
+ * bounds no smaller than the upper bound of any other document.
+ */
+class TopKSearch {
+
+    /**
+     * Largest number of keywords in a search, one bit of the seen mask each.
+     */
+    static final int MAX_KEYWORDS = 64;
+
+    /**
+     * A document seen in at least one postings.
+     */
+    private static class Candidate {
+        final int document;
+        float score;
+        long seen;
+
+        Candidate(int document) {
+            this.document = document;
+        }
+    }
+
+    private final Postings[] postings;
+    private final float[] idfs;
+    private final float[] norms;
+    private final float maxNorm;
+    private final Scorer scorer;
+    private final boolean matchAll;
+    private final int[] cursors;
+    private final HashMap<Integer, Candidate> candidates = new HashMap<>();
+
+    private TopKSearch(Postings[] postings, float[] idfs, float[] norms, float maxNorm, Scorer scorer,
+                       boolean matchAll) {
+        this.postings = postings;
+        this.idfs = idfs;
+        this.norms = norms;
+        this.maxNorm = maxNorm;
+        this.scorer = scorer;
+        this.matchAll = matchAll;
+        this.cursors = new int[postings.length];
+    }
+
+    /**
+     * Finds the top k documents for a set of keywords.
+     *
+     * @param postings Postings of the keywords, at most 64, each in descending order of frequencies
+     * @param idfs     Weight of each keyword, as computed by the scorer
+     * @param norms    Normalization factor of each document by id, as computed by the scorer
+     * @param maxNorm  Largest of the norms
+     * @param scorer   Scorer of keyword occurrences
+     * @param k        Maximum number of documents in the result
+     * @param matchAll True if a document must contain all keywords (AND), false if any will do (OR)
+     * @param scores   If not null, the total score of each top document is written here, at the
+     *                 same index as the document in the result; must have room for the
+     *                 smaller of k and the number of documents
+     * @return Ids of the top documents, in descending order of total score; documents with
+     * the same total are in ascending order of ids
+     */
+    static int[] search(Postings[] postings, float[] idfs, float[] norms, float maxNorm, Scorer scorer,
+                        int k, boolean matchAll, float[] scores) {
+        if (postings.length > MAX_KEYWORDS) {
+            throw new IllegalArgumentException("Too many keywords: " + postings.length);
+        }
+        return new TopKSearch(postings, idfs, norms, maxNorm, scorer, matchAll).run(k, scores);
+    }
+
+    private int[] run(int k, float[] scores) {
+        long rounds = 0;
+        long nextCheck = 1;
+        ArrayList<Candidate> top = null;
+
+        while (advance()) {
+            rounds++;
+            if (rounds < nextCheck) continue;
+
+            // checking costs a pass over the candidates, so it is done less often as the
+            // number of rounds (and so candidates) grows
+            nextCheck = rounds + Math.max(1, rounds / 8);
+            top = topIfFinal(k);
+            if (top != null) break;
+        }
+
+        if (top == null) {
+            top = topIfFinal(k);
+        }
+        complete(top);
+        top.sort((c1, c2) -> c1.score != c2.score
+                ? Float.compare(c2.score, c1.score)
+                : Integer.compare(c1.document, c2.document));
+
+        int[] documents = new int[top.size()];
+        for (int i = 0; i < documents.length; i++) {
+            documents[i] = top.get(i).document;
+            if (scores != null) scores[i] = top.get(i).score;
+        }
+        return documents;
+    }
+
+    /**
+     * Reads the next pair of every postings that is not exhausted.
+     *
+     * @return False if all postings were already exhausted
+     */
+    private boolean advance() {
+        boolean advanced = false;
+        for (int j = 0; j < postings.length; j++) {
+            if (cursors[j] == postings[j].size()) continue;
+
+            int document = postings[j].document(cursors[j]);
+            Candidate candidate = candidates.computeIfAbsent(document, Candidate::new);
+            candidate.score += score(j, cursors[j]);
+            candidate.seen |= 1L << j;
+            cursors[j]++;
+            advanced = true;
+        }
+        return advanced;
+    }
+
+    /**
+     * Returns the top k candidates if they can no longer be overtaken, null otherwise.
+     * Candidates that can no longer make the top k are dropped on the way.
+     */
+    private ArrayList<Candidate> topIfFinal(int k) {
+        PriorityQueue<Candidate> top = new PriorityQueue<>(
+                (c1, c2) -> c1.score != c2.score
+                        ? Float.compare(c1.score, c2.score)
+                        : Integer.compare(c2.document, c1.document));
+        for (Candidate candidate : candidates.values()) {
+            if (lowerBound(candidate) < 0) continue;
+            top.add(candidate);
+            if (top.size() > k) top.remove();
+        }
+
+        HashSet<Candidate> inTop = new HashSet<>(top);
+        Candidate kth = top.size() == k ? top.peek() : null;
+        float kthLower = kth != null ? kth.score : -1;
+        // a document never seen may have any id, so it takes the place of the kth on a tie
+        boolean overtakable = frontierTotal(0) >= kthLower;
+
+        Iterator<Candidate> iterator = candidates.values().iterator();
+        while (iterator.hasNext()) {
+            Candidate candidate = iterator.next();
+            if (inTop.contains(candidate)) continue;
+
+            float upper = upperBound(candidate);
+            if (upper < 0 || upper < kthLower) {
+                iterator.remove();
+            } else if (upper > kthLower || candidate.document < kth.document) {
+                overtakable = true;
+            }
+        }
+
+        boolean exhausted = true;
+        for (int j = 0; j < postings.length; j++) {
+            if (cursors[j] < postings[j].size()) exhausted = false;
+        }
+        if (!exhausted && (top.size() < k || overtakable)) return null;
+        return new ArrayList<>(top);
+    }
+
+    /**
+     * Highest total score a document could still get from the postings not in the seen mask.
+     */
+    private float frontierTotal(long seen) {
+        float total = 0;
+        for (int j = 0; j < postings.length; j++) {
+            if ((seen & (1L << j)) == 0 && cursors[j] < postings[j].size()) {
+                total += scorer.score(postings[j].frequency(cursors[j]), idfs[j], maxNorm);
+            }
+        }
+        return total;
+    }
+
+    private float score(int j, int i) {
+        return scorer.score(postings[j].frequency(i), idfs[j], norms[postings[j].document(i)]);
+    }
+
+    /**
+     * Lowest possible final score of a candidate, -1 if it may not match at all.
+     */
+    private float lowerBound(Candidate candidate) {
+        if (matchAll && candidate.seen != allSeen()) return -1;
+        return candidate.score;
+    }
+
+    /**
+     * Highest possible final score of a candidate, -1 if it can no longer match.
+     */
+    private float upperBound(Candidate candidate) {
+        if (matchAll) {
+            for (int j = 0; j < postings.length; j++) {
+                if ((candidate.seen & (1L << j)) == 0 && cursors[j] == postings[j].size()) return -1;
+            }
+        }
+        return candidate.score + frontierTotal(candidate.seen);
+    }
+
+    private long allSeen() {
+        return postings.length == 64 ? -1L : (1L << postings.length) - 1;
+    }
+
+    /**
+     * Adds the frequencies of the top candidates in the postings they have not been seen in yet.
+     * Those frequencies can only be past the cursor, so the rest of each postings is read once,
+     * in order, for all the candidates missing from it, and only until they are all found.
+     */
+    private void complete(ArrayList<Candidate> top) {
+        HashMap<Integer, Candidate> missing = new HashMap<>();
+        for (int j = 0; j < postings.length; j++) {
+            missing.clear();
+            for (Candidate candidate : top) {
+                if ((candidate.seen & (1L << j)) == 0) missing.put(candidate.document, candidate);
+            }
+            for (int i = cursors[j]; i < postings[j].size() && !missing.isEmpty(); i++) {
+                Candidate candidate = missing.remove(postings[j].document(i));
+                if (candidate != null) candidate.score += score(j, i);
+            }
+            for (Candidate candidate : top) {
+                candidate.seen |= 1L << j;
+            }
+        }
+    }
+}
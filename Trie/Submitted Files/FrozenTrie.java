@@ -0,0 +1,189 @@
+package trie;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class holds a compressed trie, made by Trie.buildTrie, in a few flat arrays of
+ * primitives instead of one TrieNode and one Indexes object per node, so that a trie of
+ * millions of words is a handful of objects for the garbage collector, not millions. The trie
+ * cannot be changed once frozen; it is built again from a new trie instead. It never changes,
+ * so it may be searched by several threads at once.
+ *
+ * Nodes are numbered in breadth-first order, the root being node 0, so the children of a node
+ * are numbered consecutively, and are in order of their first characters. For every node n:
+ * - its children are the nodes childStart[n] to childStart[n+1]-1
+ * - its substring is labels[labelStart[n]] to labels[labelStart[n+1]-1], copied from the words
+ * - the words that start with the characters from the root down to it are
+ *   leafWords[leafStart[n]] to leafWords[leafEnd[n]-1]: leaves are listed in depth-first order,
+ *   so the leaves below any node are next to one another
+ *
+ * A completion list is thus a descent from the root, finding each child by binary search on
+ * first characters, followed by a copy of a range of leafWords.
+ */
+public class FrozenTrie {
+
+	private final int[] childStart;
+
+	private final int[] labelStart;
+
+	private final char[] labels;
+
+	private final int[] leafStart;
+
+	private final int[] leafEnd;
+
+	/**
+	 * Index in the array of words of every leaf, in depth-first order
+	 */
+	private final int[] leafWords;
+
+	/**
+	 * Freezes a trie.
+	 *
+	 * @param root Root of trie built by Trie.buildTrie
+	 * @param allWords Array of words that have been inserted into the trie
+	 */
+	FrozenTrie(TrieNode root, String[] allWords) {
+		ArrayList<TrieNode> nodes = new ArrayList<>();
+		ArrayDeque<TrieNode> queue = new ArrayDeque<>();
+		queue.add(root);
+		int labelLength = 0;
+		while (!queue.isEmpty()) {
+			TrieNode node = queue.remove();
+			nodes.add(node);
+			if (node.substr != null) {
+				labelLength += node.substr.endIndex - node.substr.startIndex + 1;
+			}
+			ArrayList<TrieNode> children = new ArrayList<>();
+			for (TrieNode child = node.firstChild; child != null; child = child.sibling) {
+				children.add(child);
+			}
+			children.sort((c1, c2) -> firstChar(c1, allWords) - firstChar(c2, allWords));
+			queue.addAll(children);
+		}
+
+		int count = nodes.size();
+		childStart = new int[count + 1];
+		labelStart = new int[count + 1];
+		labels = new char[labelLength];
+		leafStart = new int[count];
+		leafEnd = new int[count];
+
+		int nextChild = 1;
+		int nextLabel = 0;
+		int leafCount = 0;
+		for (int n = 0; n < count; n++) {
+			TrieNode node = nodes.get(n);
+			childStart[n] = nextChild;
+			for (TrieNode child = node.firstChild; child != null; child = child.sibling) {
+				nextChild++;
+			}
+			if (node.firstChild == null) {
+				leafCount++;
+			}
+
+			labelStart[n] = nextLabel;
+			if (node.substr != null) {
+				String word = allWords[node.substr.wordIndex];
+				word.getChars(node.substr.startIndex, node.substr.endIndex + 1, labels, nextLabel);
+				nextLabel += node.substr.endIndex - node.substr.startIndex + 1;
+			}
+		}
+		childStart[count] = nextChild;
+		labelStart[count] = nextLabel;
+
+		leafWords = new int[leafCount];
+		addLeafs(0, nodes, 0);
+	}
+
+	private static char firstChar(TrieNode node, String[] allWords) {
+		return allWords[node.substr.wordIndex].charAt(node.substr.startIndex);
+	}
+
+	/**
+	 * Lists the leaves below a node in depth-first order from position next on, and records
+	 * their range.
+	 *
+	 * @return Position after the last leaf listed
+	 */
+	private int addLeafs(int node, ArrayList<TrieNode> nodes, int next) {
+		leafStart[node] = next;
+		if (childStart[node] == childStart[node + 1]) {
+			leafWords[next++] = nodes.get(node).substr.wordIndex;
+		} else {
+			for (int child = childStart[node]; child < childStart[node + 1]; child++) {
+				next = addLeafs(child, nodes, next);
+			}
+		}
+		leafEnd[node] = next;
+		return next;
+	}
+
+	/**
+	 * Returns the number of nodes, root included.
+	 *
+	 * @return Number of nodes
+	 */
+	public int nodeCount() {
+		return leafStart.length;
+	}
+
+	/**
+	 * Returns the number of words in the trie.
+	 *
+	 * @return Number of words
+	 */
+	public int wordCount() {
+		return leafWords.length;
+	}
+
+	/**
+	 * Returns the "completion list" for a prefix, as Trie.completionList does, but as the
+	 * indexes of the words in the array of words the trie was built from, instead of leaf nodes.
+	 * The descent allocates nothing; only the returned array is allocated.
+	 *
+	 * @param prefix Prefix to be completed with words in trie
+	 * @return Indexes in the array of words of all the words that start with the prefix,
+	 * 			in alphabetical order of the words.
+	 *         If there is no word in the tree that has this prefix, null is returned.
+	 */
+	public int[] completionList(String prefix) {
+		int node = 0;
+		int depth = 0;
+		while (depth < prefix.length()) {
+			node = child(node, prefix.charAt(depth));
+			if (node < 0) {
+				return null;
+			}
+			for (int l = labelStart[node]; l < labelStart[node + 1] && depth < prefix.length(); l++) {
+				if (labels[l] != prefix.charAt(depth++)) {
+					return null;
+				}
+			}
+		}
+		return Arrays.copyOfRange(leafWords, leafStart[node], leafEnd[node]);
+	}
+
+	/**
+	 * Returns the child of a node whose substring starts with a character.
+	 *
+	 * @return Child, -1 if there is none
+	 */
+	private int child(int node, char c) {
+		int low = childStart[node], high = childStart[node + 1] - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			char first = labels[labelStart[mid]];
+			if (first < c) {
+				low = mid + 1;
+			} else if (first > c) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,117 @@
+package trie;
+
+/**
+ * This class encapsulates a node of a compressed trie whose children are held in an array
+ * instead of a first child/sibling list, so the child to follow is found without a linear scan
+ * of the siblings. Children are sorted by the first character of their substrings, and found by
+ * binary search; a node with many children whose first characters are close together (the upper
+ * levels of a large dictionary, where nearly every letter has a child) also has a table indexed
+ * directly by character.
+ *
+ * Indexed nodes are built from a trie made by Trie.buildTrie (see Trie.indexChildren), and share
+ * its Indexes substrings, so a node holds the same substring as the TrieNode it is built from,
+ * which it also keeps. An indexed trie is a snapshot: it is not changed by words added to the
+ * trie later, and must be built again.
+ */
+public class IndexedTrieNode {
+
+	/**
+	 * Smallest number of children for which a direct-index table is built.
+	 */
+	static final int DENSE_CHILDREN = 8;
+
+	/**
+	 * Largest number of table slots per child: a table is only built if the first characters
+	 * of the children are no more spread out than this.
+	 */
+	static final int MAX_SLOTS_PER_CHILD = 4;
+
+	/**
+	 * Substring held at this node (could be a single character), null at the root
+	 */
+	final Indexes substr;
+
+	/**
+	 * Trie node this node is built from
+	 */
+	final TrieNode node;
+
+	/**
+	 * Children, sorted by first character; empty at a leaf
+	 */
+	final IndexedTrieNode[] children;
+
+	/**
+	 * First character of the substring of every child, in the same order as children
+	 */
+	final char[] firstChars;
+
+	/**
+	 * Child for every first character from tableBase on, null where there is none; null if the
+	 * node has no table
+	 */
+	final IndexedTrieNode[] table;
+
+	/**
+	 * First character of table[0]
+	 */
+	final char tableBase;
+
+	/**
+	 * Initializes this node with its substring and children.
+	 *
+	 * @param node Trie node this node is built from
+	 * @param children Children, sorted by first character
+	 * @param firstChars First character of the substring of every child
+	 */
+	IndexedTrieNode(TrieNode node, IndexedTrieNode[] children, char[] firstChars) {
+		this.substr = node.substr;
+		this.node = node;
+		this.children = children;
+		this.firstChars = firstChars;
+
+		int span = firstChars.length == 0 ? 0 : firstChars[firstChars.length - 1] - firstChars[0] + 1;
+		if (children.length >= DENSE_CHILDREN && span <= children.length * MAX_SLOTS_PER_CHILD) {
+			tableBase = firstChars[0];
+			table = new IndexedTrieNode[span];
+			for (int i = 0; i < children.length; i++) {
+				table[firstChars[i] - tableBase] = children[i];
+			}
+		} else {
+			tableBase = 0;
+			table = null;
+		}
+	}
+
+	/**
+	 * Returns the child whose substring starts with a character.
+	 *
+	 * @param c First character
+	 * @return Child, null if there is none
+	 */
+	IndexedTrieNode child(char c) {
+		if (table != null) {
+			int slot = c - tableBase;
+			return slot >= 0 && slot < table.length ? table[slot] : null;
+		}
+		int low = 0, high = firstChars.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (firstChars[mid] < c) {
+				low = mid + 1;
+			} else if (firstChars[mid] > c) {
+				high = mid - 1;
+			} else {
+				return children[mid];
+			}
+		}
+		return null;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return substr == null ? "root" : substr.toString();
+	}
+}
@@ -1,6 +1,7 @@
 package trie;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * This class implements a Trie. 
@@ -44,73 +45,57 @@ public class Trie {
 	}
 	
 	private static void addString(TrieNode parent,String value, String[] array,int index) {
-		boolean toBeAdded = false;
-		boolean toBeBroken = false;
-		int position = -1;
 		String newString = array[index];
-		while (!toBeAdded) {
-			String toBeMatched = array[parent.substr.wordIndex].substring(parent.substr.startIndex, parent.substr.endIndex + 1);
-			if (fullMatch(toBeMatched,newString)) {
+		while (true) {
+			int matched = matchLength(parent.substr, array, newString);
+			int length = parent.substr.endIndex - parent.substr.startIndex + 1;
+			if (matched == length) {
 				parent = parent.firstChild;
-				newString = newString.substring(parent.substr.startIndex);
-				continue;
-			}else if (noMatch(toBeMatched,newString)) {
+			}else if (matched == 0) {
 				if (parent.sibling == null) {
-					toBeAdded = true;
 					break;
-				}else {
-					parent = parent.sibling;
-					continue;
 				}
+				parent = parent.sibling;
 			}else {
-				position = getBreakPosition(toBeMatched, newString);
-				if (position != -1){
-					toBeAdded = toBeBroken = true;
-					break;
-				}
-			}
-		}
-		if (toBeAdded && !toBeBroken) {
-			TrieNode node = new TrieNode(new Indexes(index,parent.substr.startIndex,(short)(array[index].length() - 1)), null, null);
-			parent.sibling = node;
-		}
-		
-		if (toBeAdded && toBeBroken) {
-			int startIndex = parent.substr.startIndex + position + 1;
-			TrieNode broken = new TrieNode(new Indexes(parent.substr.wordIndex, (short)(startIndex), parent.substr.endIndex), parent.firstChild, null);
-			parent.substr.endIndex = (short)(startIndex - 1);
-			parent.firstChild = broken;
-			TrieNode node = new TrieNode(new Indexes(index,(short)(startIndex),(short)(array[index].length() - 1)), null, null);
-			broken.sibling = node;
-		}
-	}
-	
-	private static int getBreakPosition(String one, String two) {
-		int toBeReturned = -1;
-		int minimum = Math.min(one.length(), two.length());
-		for (int i = 0; i < minimum;i++) {
-			if (one.charAt(i) != two.charAt(i)) {
-				toBeReturned = i - 1;
-				break;
+				breakNode(parent, array, index, parent.substr.startIndex + matched);
+				return;
 			}
 		}
-		return toBeReturned;
+		TrieNode node = new TrieNode(new Indexes(index,parent.substr.startIndex,(short)(array[index].length() - 1)), null, null);
+		parent.sibling = node;
 	}
 	
-	private static boolean fullMatch(String one, String two) {
-		if (two.startsWith(one)) {
-			return true;
-		}else {
-			return false;
-		}
+	/**
+	 * Splits a node before startIndex, and adds the rest of a word as a sibling of the
+	 * lower half.
+	 */
+	private static void breakNode(TrieNode parent, String[] array, int index, int startIndex) {
+		TrieNode broken = new TrieNode(new Indexes(parent.substr.wordIndex, (short)(startIndex), parent.substr.endIndex), parent.firstChild, null);
+		parent.substr.endIndex = (short)(startIndex - 1);
+		parent.firstChild = broken;
+		TrieNode node = new TrieNode(new Indexes(index,(short)(startIndex),(short)(array[index].length() - 1)), null, null);
+		broken.sibling = node;
 	}
 	
-	private static boolean noMatch(String one, String two) {
-		if (one.charAt(0) != two.charAt(0)) {
-			return true;
-		}else {
-			return false;
+	/**
+	 * Returns how many characters of the substring held at a node match a word, comparing
+	 * them in place. A node's substring starts at its depth in the trie, so it is compared
+	 * with the word from that same index on, and no substring of either is ever built.
+	 * 
+	 * @param substr Substring held at the node
+	 * @param allWords Array of words that have been inserted into the trie
+	 * @param word Word, or prefix, being looked up
+	 * @return Number of matching characters, 0 if the first one differs
+	 */
+	private static int matchLength(Indexes substr, String[] allWords, String word) {
+		String held = allWords[substr.wordIndex];
+		int start = substr.startIndex;
+		int end = Math.min(substr.endIndex, word.length() - 1);
+		int i = start;
+		while (i <= end && held.charAt(i) == word.charAt(i)) {
+			i++;
 		}
+		return i - start;
 	}
 	
 	
@@ -124,6 +109,9 @@ public class Trie {
 	 * (The last example shows that an input prefix can be an entire word.) 
 	 * The order of returned leaf nodes DOES NOT MATTER. So, for prefix "be",
 	 * the returned list of leaf nodes can be either hold [bear,bell] or [bell,bear].
+	 * 
+	 * The prefix is compared in place with the substrings held at the nodes on the way down,
+	 * so the descent allocates nothing; only the returned list is allocated.
 	 *
 	 * @param root Root of Trie that stores all words to search on for completion lists
 	 * @param allWords Array of words that have been inserted into the trie
@@ -134,46 +122,129 @@ public class Trie {
 	 */
 	public static ArrayList<TrieNode> completionList(TrieNode root,
 										String[] allWords, String prefix) {
-		ArrayList<TrieNode> leafs = new ArrayList<>();
+		if (prefix.length() == 0) {
+			ArrayList<TrieNode> leafs = new ArrayList<>();
+			addAllLeafs(root, leafs);
+			return leafs;
+		}
 		TrieNode parent = root.firstChild;
-		boolean toBeRepeated = true;
-		boolean getAllLeafs = false;
-		while (toBeRepeated) {
-			String fromTrie = allWords[parent.substr.wordIndex].substring(parent.substr.startIndex, parent.substr.endIndex + 1);
-			if (noMatch(fromTrie, prefix)) {
-				parent = parent.sibling;
-				continue;
+		while (parent != null) {
+			int matched = matchLength(parent.substr, allWords, prefix);
+			if (parent.substr.startIndex + matched == prefix.length()) {
+				ArrayList<TrieNode> leafs = new ArrayList<>();
+				addAllLeafs(parent, leafs);
+				return leafs;
 			}
-			if (fromTrie.startsWith(prefix)) {
-				toBeRepeated = false;
-				getAllLeafs = true;
-				break;
-			}
-			if (prefix.startsWith(fromTrie)) {
+			if (matched == 0) {
+				parent = parent.sibling;
+			}else if (matched == parent.substr.endIndex - parent.substr.startIndex + 1) {
 				parent = parent.firstChild;
-				prefix = prefix.substring(parent.substr.startIndex);
-				continue;
+			}else {
+				return null;
+			}
+		}
+		return null;
+	}
+	
+	private static void addAllLeafs(TrieNode parent, ArrayList<TrieNode> leafs) {
+		if (parent.firstChild == null) {
+			leafs.add(parent);
+		}else {
+			for (TrieNode child = parent.firstChild; child != null; child = child.sibling) {
+				addAllLeafs(child, leafs);
 			}
 		}
+	}
+	
+	/**
+	 * Builds a copy of a trie in which the children of every node are held in an array sorted
+	 * by first character, so that completionList finds the child to follow by binary search, or
+	 * by direct indexing at nodes with many children, instead of by scanning the siblings.
+	 * The copy shares the substrings of the trie, and its leaves are the leaves of the trie.
+	 * 
+	 * @param root Root of trie built by buildTrie
+	 * @param allWords Array of words that have been inserted into the trie
+	 * @return Root of the indexed trie
+	 */
+	public static IndexedTrieNode indexChildren(TrieNode root, String[] allWords) {
+		int count = 0;
+		for (TrieNode child = root.firstChild; child != null; child = child.sibling) {
+			count++;
+		}
+		IndexedTrieNode[] children = new IndexedTrieNode[count];
+		int i = 0;
+		for (TrieNode child = root.firstChild; child != null; child = child.sibling) {
+			children[i++] = indexChildren(child, allWords);
+		}
+		Arrays.sort(children, (c1, c2) -> firstChar(c1, allWords) - firstChar(c2, allWords));
 		
-		if (getAllLeafs) {
-			leafs.addAll(getAllLeafs(parent));
+		char[] firstChars = new char[count];
+		for (i = 0; i < count; i++) {
+			firstChars[i] = firstChar(children[i], allWords);
 		}
-		return leafs;
+		return new IndexedTrieNode(root, children, firstChars);
 	}
 	
-	private static ArrayList<TrieNode> getAllLeafs(TrieNode parent){
-		ArrayList<TrieNode> toBeReturned = new ArrayList<>();
-		if (parent.firstChild == null) {
-			toBeReturned.add(parent); 
+	private static char firstChar(IndexedTrieNode node, String[] allWords) {
+		return allWords[node.substr.wordIndex].charAt(node.substr.startIndex);
+	}
+	
+	/**
+	 * Returns the completion list for a prefix, as completionList does, in a trie built by
+	 * indexChildren. At every level the child to follow is found directly from the next
+	 * character of the prefix, without scanning its siblings.
+	 * 
+	 * @param root Root of indexed trie
+	 * @param allWords Array of words that have been inserted into the trie
+	 * @param prefix Prefix to be completed with words in trie
+	 * @return List of all leaf nodes in trie that hold words that start with the prefix, 
+	 * 			order of leaf nodes does not matter.
+	 *         If there is no word in the tree that has this prefix, null is returned.
+	 */
+	public static ArrayList<TrieNode> completionList(IndexedTrieNode root,
+										String[] allWords, String prefix) {
+		if (prefix.length() == 0) {
+			ArrayList<TrieNode> leafs = new ArrayList<>();
+			addAllLeafs(root, leafs);
+			return leafs;
+		}
+		IndexedTrieNode parent = root.child(prefix.charAt(0));
+		while (parent != null) {
+			int matched = matchLength(parent.substr, allWords, prefix);
+			int end = parent.substr.startIndex + matched;
+			if (end == prefix.length()) {
+				ArrayList<TrieNode> leafs = new ArrayList<>();
+				addAllLeafs(parent, leafs);
+				return leafs;
+			}
+			if (matched < parent.substr.endIndex - parent.substr.startIndex + 1) {
+				return null;
+			}
+			parent = parent.child(prefix.charAt(end));
+		}
+		return null;
+	}
+	
+	private static void addAllLeafs(IndexedTrieNode parent, ArrayList<TrieNode> leafs) {
+		if (parent.children.length == 0) {
+			leafs.add(parent.node);
 		}else {
-			TrieNode child = parent.firstChild;
-			do {
-				toBeReturned.addAll(getAllLeafs(child));
-				child = child.sibling;
-			}while(child != null);
+			for (IndexedTrieNode child : parent.children) {
+				addAllLeafs(child, leafs);
+			}
 		}
-		return toBeReturned;
+	}
+	
+	/**
+	 * Freezes a trie into flat arrays, for long-lived dictionaries: see FrozenTrie. Once frozen,
+	 * the TrieNode objects are no longer needed and may be dropped.
+	 * 
+	 * @param root Root of trie built by buildTrie
+	 * @param allWords Array of words that have been inserted into the trie
+	 * @return Frozen trie
+	 */
+	public static FrozenTrie freeze(TrieNode root, String[] allWords) {
+		return new FrozenTrie(root, allWords);
 	}
 	
 	public static void print(TrieNode root, String[] allWords) {